@@ -0,0 +1,139 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2021 OpenCubicChunks
+ *  Copyright (c) 2015-2021 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.api.util;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Iterator;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Common interface of hash tables for objects in a 3-dimensional cartesian coordinate system.
+ *
+ * @param <T> class of the objects to be contained in this map
+ *
+ * @see XYZMap
+ * @see PackedXYZMap
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public interface IXYZMap<T extends XYZAddressable> extends Iterable<T> {
+
+    /**
+     * Returns the number of elements in this map
+     *
+     * @return the number of elements in this map
+     */
+    int getSize();
+
+    /**
+     * Removes all elements from the map.
+     */
+    void clear();
+
+    /**
+     * Associates the given value with its xyz-coordinates. If the map
+     * previously contained a mapping for these coordinates, the old value is
+     * replaced.
+     *
+     * @param value value to be associated with its coordinates
+     *
+     * @return the previous value associated with the given value's coordinates
+     *         or null if no such value exists
+     */
+    @Nullable T put(T value);
+
+    /**
+     * Removes and returns the entry associated with the given coordinates.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return the entry associated with the specified coordinates or null if no
+     *         such entry exists
+     */
+    @Nullable T remove(int x, int y, int z);
+
+    /**
+     * Removes and returns the given value from this map. More specifically,
+     * removes the entry whose xyz-coordinates equal the given value's
+     * coordinates.
+     *
+     * @param value the value to be removed
+     *
+     * @return the entry associated with the given value's coordinates or null
+     *         if no such entry exists
+     */
+    @Nullable T remove(T value);
+
+    /**
+     * Returns the value associated with the given coordinates or null if no
+     * such value exists.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return the entry associated with the specified coordinates or null if no
+     *         such value exists
+     */
+    @Nullable T get(int x, int y, int z);
+
+    /**
+     * Returns true if there exists an entry associated with the given
+     * xyz-coordinates in this map.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return true if there exists an entry associated with the given
+     *         coordinates in this map
+     */
+    boolean contains(int x, int y, int z);
+
+    /**
+     * Returns true if the given value is contained within this map. More
+     * specifically, returns true if there exists an entry in this map whose
+     * xyz-coordinates equal the given value's coordinates.
+     *
+     * @param value the value
+     *
+     * @return true if the given value is contained within this map
+     */
+    boolean contains(T value);
+
+    /**
+     * Return iterator over elements started from random position defined by
+     * seed
+     *
+     * @param seed defines start position
+     * @return An iterator that starts at randomized position based on seed
+     **/
+    Iterator<T> randomWrappedIterator(int seed);
+}
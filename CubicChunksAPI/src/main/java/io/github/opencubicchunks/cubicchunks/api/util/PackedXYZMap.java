@@ -0,0 +1,438 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2021 OpenCubicChunks
+ *  Copyright (c) 2015-2021 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.api.util;
+
+import mcp.MethodsReturnNonnullByDefault;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Hash table implementation for objects in a 3-dimensional cartesian coordinate
+ * system, with the coordinates of each entry stored inline in primitive arrays.
+ * <p>
+ * Unlike {@link XYZMap}, lookups never dereference the stored values to compare
+ * coordinates. X and Z are packed into a single {@code long} key, and Y is kept in
+ * a parallel {@code int[]}, so the full 32-bit range of all three coordinates
+ * is supported. Iteration order and {@link #randomWrappedIterator(int)} behave
+ * the same way as in {@link XYZMap}.
+ *
+ * @param <T> class of the objects to be contained in this map
+ *
+ * @see XYZAddressable
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class PackedXYZMap<T extends XYZAddressable> implements IXYZMap<T> {
+
+    private static final Logger LOGGER = LogManager.getLogger("cubicchunks");
+
+    private static final boolean CHECK_THREADED_WRITES = "true".equalsIgnoreCase(System.getProperty("cubicchunks.debug.checkThreadedXYZMapWrites"));
+
+    /**
+     * A larger prime number used as seed for hash calculation.
+     */
+    private static final int HASH_SEED = 1183822147;
+
+    /**
+     * Backing array containing all elements of this map, accessed by pointers.
+     * This array contain no gaps with {@code null}, therefore it is possible to
+     * iterate thru elements using simple index increment. Index 0 is always empty.
+     */
+    @Nonnull private Object[] values;
+    /**
+     * Packed XZ coordinates of the elements in {@link #values}, at the same index.
+     */
+    @Nonnull private long[] xzByPointer;
+    /**
+     * Y coordinates of the elements in {@link #values}, at the same index.
+     */
+    @Nonnull private int[] yByPointer;
+
+    /**
+     * Open addressing table, accessed by hash. Contains indices into {@link #values},
+     * or 0 for empty slots.
+     */
+    @Nonnull private int[] pointers;
+    /**
+     * Packed XZ coordinates of the element referenced by {@link #pointers}, at the same index.
+     */
+    @Nonnull private long[] xzByHash;
+    /**
+     * Y coordinates of the element referenced by {@link #pointers}, at the same index.
+     */
+    @Nonnull private int[] yByHash;
+
+    /**
+     * the current number of elements in this map
+     */
+    private int size = 0;
+
+    /**
+     * the maximum permissible load of the backing array, after reaching it the
+     * array will be resized
+     */
+    private final float loadFactor;
+
+    /**
+     * the load threshold of the backing array, after reaching it the array will
+     * be resized
+     */
+    private int loadThreshold;
+
+    /**
+     * binary mask used to wrap indices
+     */
+    private int mask;
+
+    private final Thread debugStartThreadRef = Thread.currentThread();
+
+    /**
+     * Creates a new PackedXYZMap with the given load factor and initial capacity. The
+     * map will automatically grow if the specified load is surpassed.
+     *
+     * @param loadFactor the load factor
+     * @param capacity the initial capacity
+     */
+    public PackedXYZMap(float loadFactor, int capacity) {
+        if (loadFactor > 1.0) {
+            throw new IllegalArgumentException("You really dont want to be using a " + loadFactor + " load loadFactor with this hash table!");
+        }
+
+        this.loadFactor = loadFactor;
+
+        int tCapacity = 1;
+        while (tCapacity < capacity) {
+            tCapacity <<= 1;
+        }
+        allocate(tCapacity);
+    }
+
+    private void allocate(int capacity) {
+        this.values = new Object[capacity];
+        this.xzByPointer = new long[capacity];
+        this.yByPointer = new int[capacity];
+        this.pointers = new int[capacity];
+        this.xzByHash = new long[capacity];
+        this.yByHash = new int[capacity];
+
+        // we need that 1 extra space, make sure it will be there
+        this.loadThreshold = (int) (capacity * this.loadFactor) - 2;
+        this.mask = capacity - 1;
+    }
+
+    @Override
+    public int getSize() {
+        return this.size;
+    }
+
+    private static long packXZ(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    private static int unpackX(long xz) {
+        return (int) (xz >> 32);
+    }
+
+    private static int unpackZ(long xz) {
+        return (int) xz;
+    }
+
+    /**
+     * Computes a 32b hash based on the given coordinates. This is the same hash as used by {@link XYZMap}.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return a 32b hash based on the given coordinates
+     */
+    private static int hash(int x, int y, int z) {
+        int hash = HASH_SEED;
+        hash += x;
+        hash *= HASH_SEED;
+        hash += y;
+        hash *= HASH_SEED;
+        hash += z;
+        hash *= HASH_SEED;
+        return hash;
+    }
+
+    private int getPointerIndex(int x, int y, int z) {
+        return hash(x, y, z) & this.mask;
+    }
+
+    private int getNextPointerIndex(int pointerIndex) {
+        return ++pointerIndex & this.mask;
+    }
+
+    /**
+     * Finds the slot in the hash table associated with the given coordinates, or the empty slot where they would be
+     * inserted.
+     */
+    private int findPointerIndex(long xz, int y) {
+        int pointerIndex = this.getPointerIndex(unpackX(xz), y, unpackZ(xz));
+        while (this.pointers[pointerIndex] != 0) {
+            if (this.xzByHash[pointerIndex] == xz && this.yByHash[pointerIndex] == y) {
+                return pointerIndex;
+            }
+            pointerIndex = this.getNextPointerIndex(pointerIndex);
+        }
+        return pointerIndex;
+    }
+
+    @Override
+    public void clear() {
+        checkThreadedWrite();
+        Arrays.fill(this.values, null);
+        Arrays.fill(this.pointers, 0);
+        this.size = 0;
+    }
+
+    @Override
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T put(T value) {
+        checkThreadedWrite();
+        int y = value.getY();
+        long xz = packXZ(value.getX(), value.getZ());
+        int pointerIndex = findPointerIndex(xz, y);
+        int index = this.pointers[pointerIndex];
+        if (index != 0) {
+            T old = (T) this.values[index];
+            this.values[index] = value;
+            return old;
+        }
+        index = ++this.size;
+        this.values[index] = value;
+        this.xzByPointer[index] = xz;
+        this.yByPointer[index] = y;
+        this.pointers[pointerIndex] = index;
+        this.xzByHash[pointerIndex] = xz;
+        this.yByHash[pointerIndex] = y;
+
+        // If the load threshold has been reached, increase the map's size.
+        if (this.size > this.loadThreshold) {
+            grow();
+        }
+        return null;
+    }
+
+    @Override
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T remove(int x, int y, int z) {
+        checkThreadedWrite();
+        int pointerIndex = findPointerIndex(packXZ(x, z), y);
+        int index = this.pointers[pointerIndex];
+        if (index == 0) {
+            return null;
+        }
+        T value = (T) this.values[index];
+        this.collapseBucket(pointerIndex, index);
+        return value;
+    }
+
+    @Override
+    @Nullable
+    public T remove(T value) {
+        return this.remove(value.getX(), value.getY(), value.getZ());
+    }
+
+    @Override
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T get(int x, int y, int z) {
+        long xz = packXZ(x, z);
+        int pointerIndex = this.getPointerIndex(x, y, z);
+        int index;
+        while ((index = this.pointers[pointerIndex]) != 0) {
+            if (this.xzByHash[pointerIndex] == xz && this.yByHash[pointerIndex] == y) {
+                return (T) this.values[index];
+            }
+            pointerIndex = this.getNextPointerIndex(pointerIndex);
+        }
+        return null;
+    }
+
+    @Override
+    public boolean contains(int x, int y, int z) {
+        return this.pointers[findPointerIndex(packXZ(x, z), y)] != 0;
+    }
+
+    @Override
+    public boolean contains(T value) {
+        return this.contains(value.getX(), value.getY(), value.getZ());
+    }
+
+    /**
+     * Doubles the size of the backing arrays and redistributes all contained
+     * values accordingly.
+     */
+    private void grow() {
+        Object[] oldValues = this.values;
+        long[] oldXz = this.xzByPointer;
+        int[] oldY = this.yByPointer;
+        allocate(oldValues.length * 2);
+
+        System.arraycopy(oldValues, 0, this.values, 0, this.size + 1);
+        System.arraycopy(oldXz, 0, this.xzByPointer, 0, this.size + 1);
+        System.arraycopy(oldY, 0, this.yByPointer, 0, this.size + 1);
+        for (int i = 1; i <= this.size; i++) {
+            long xz = this.xzByPointer[i];
+            int y = this.yByPointer[i];
+            int pointerIndex = this.getPointerIndex(unpackX(xz), y, unpackZ(xz));
+            while (this.pointers[pointerIndex] != 0) {
+                pointerIndex = this.getNextPointerIndex(pointerIndex);
+            }
+            this.pointers[pointerIndex] = i;
+            this.xzByHash[pointerIndex] = xz;
+            this.yByHash[pointerIndex] = y;
+        }
+    }
+
+    /**
+     * Removes the value contained at the given index. The hash table slot is closed by shifting the following
+     * entries of the same probe sequence back, and the last value is moved into the resulting gap of the value array.
+     *
+     * @param holePointerIndex the index of the pointer to be collapsed
+     * @param holeIndex an index of the bucket to be collapsed
+     */
+    private void collapseBucket(int holePointerIndex, final int holeIndex) {
+        int pointerIndex = this.getNextPointerIndex(holePointerIndex);
+        while (this.pointers[pointerIndex] != 0) {
+            long xz = this.xzByHash[pointerIndex];
+            int y = this.yByHash[pointerIndex];
+            int desiredIndex = this.getPointerIndex(unpackX(xz), y, unpackZ(xz));
+            // move the entry back if the hole is between its desired position and its current position
+            if (((pointerIndex - desiredIndex) & this.mask) >= ((pointerIndex - holePointerIndex) & this.mask)) {
+                this.pointers[holePointerIndex] = this.pointers[pointerIndex];
+                this.xzByHash[holePointerIndex] = xz;
+                this.yByHash[holePointerIndex] = y;
+                holePointerIndex = pointerIndex;
+            }
+            pointerIndex = this.getNextPointerIndex(pointerIndex);
+        }
+        this.pointers[holePointerIndex] = 0;
+
+        final int lastIndex = this.size;
+        if (holeIndex != lastIndex) {
+            long xz = this.xzByPointer[lastIndex];
+            int y = this.yByPointer[lastIndex];
+            int lastPointerIndex = this.getPointerIndex(unpackX(xz), y, unpackZ(xz));
+            while (this.pointers[lastPointerIndex] != lastIndex) {
+                lastPointerIndex = this.getNextPointerIndex(lastPointerIndex);
+            }
+            this.pointers[lastPointerIndex] = holeIndex;
+            this.values[holeIndex] = this.values[lastIndex];
+            this.xzByPointer[holeIndex] = xz;
+            this.yByPointer[holeIndex] = y;
+        }
+        this.values[lastIndex] = null;
+        this.size--;
+    }
+
+    private int getElementPointerIndex(int index) {
+        return findPointerIndex(this.xzByPointer[index], this.yByPointer[index]);
+    }
+
+    private void checkThreadedWrite() {
+        if (CHECK_THREADED_WRITES) {
+            if (Thread.currentThread() != debugStartThreadRef) {
+                LOGGER.error("Invalid threaded write access", new RuntimeException("Detected XYZ map write access from unexpected thread!"));
+            }
+        }
+    }
+
+    // Interface: Iterable<T>
+    // ------------------------------------------------------------------------------------------
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+
+            int at = 1;
+
+            @Override
+            public boolean hasNext() {
+                return at <= size;
+            }
+
+            @Nullable
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                return (T) values[at++];
+            }
+
+            @Override
+            public void remove() {
+                checkThreadedWrite();
+                int pointerIndex = getElementPointerIndex(--at);
+                collapseBucket(pointerIndex, at);
+            }
+        };
+    }
+
+    @Override
+    public Iterator<T> randomWrappedIterator(int seed) {
+        return new Iterator<T>() {
+
+            // see XYZMap.randomWrappedIterator for the constraints on the start point
+            boolean start = size > 0;
+            int startFrom = start ? (getNextPointerIndex(seed) % size | 1) : 0;
+            int at = startFrom;
+
+            @Override
+            public boolean hasNext() {
+                // 'at' equal to 'startFrom' allowed until first iteration.
+                return at != startFrom || start;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                start = false;
+                T toReturn = (T) values[at++];
+                if (at > size)
+                    at = 1;
+                return toReturn;
+            }
+
+            @Override
+            public void remove() {
+                checkThreadedWrite();
+                int pointerIndex = getElementPointerIndex(--at);
+                collapseBucket(pointerIndex, at);
+            }
+        };
+    }
+}
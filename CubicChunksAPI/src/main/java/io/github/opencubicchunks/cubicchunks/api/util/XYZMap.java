@@ -47,7 +47,7 @@ import javax.annotation.ParametersAreNonnullByDefault;
  */
 @ParametersAreNonnullByDefault
 @MethodsReturnNonnullByDefault
-public class XYZMap<T extends XYZAddressable> implements Iterable<T> {
+public class XYZMap<T extends XYZAddressable> implements IXYZMap<T> {
 
     private static final Logger LOGGER = LogManager.getLogger("cubicchunks");
 
@@ -94,6 +94,14 @@ public abstract class StorageFormatProviderBase implements IForgeRegistryEntry<S
         return false;
     }
 
+    /**
+     * @return whether the block, light and biome data of cubes passed to this storage format may be packed into a single binary tag instead of the
+     * vanilla-like "Sections" format. Only storage formats which never inspect that part of the cube NBT should enable this.
+     */
+    public boolean usesBinaryCubeData() {
+        return false;
+    }
+
     private static class StorageFormatCallbacks implements IForgeRegistry.MissingFactory<StorageFormatProviderBase> {
         private static final StorageFormatCallbacks INSTANCE = new StorageFormatCallbacks();
 
@@ -29,17 +29,21 @@ import static io.github.opencubicchunks.cubicchunks.core.util.ReflectionUtil.cas
 import io.github.opencubicchunks.cubicchunks.api.world.storage.ICubicStorage;
 import io.github.opencubicchunks.cubicchunks.api.world.storage.StorageFormatProviderBase;
 import io.github.opencubicchunks.cubicchunks.api.worldgen.VanillaCompatibilityGeneratorProviderBase;
+import io.github.opencubicchunks.cubicchunks.core.asm.CubicChunksCoreContainer;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldSettings;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.common.IIntegratedServer;
 import io.github.opencubicchunks.cubicchunks.core.client.ClientEventHandler;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketDispatcher;
+import io.github.opencubicchunks.cubicchunks.core.server.chunkio.CubeCompression;
 import io.github.opencubicchunks.cubicchunks.core.server.chunkio.RegionCubeStorage;
 import io.github.opencubicchunks.cubicchunks.core.util.CompatHandler;
 import io.github.opencubicchunks.cubicchunks.core.util.SideUtils;
+import io.github.opencubicchunks.cubicchunks.core.world.WorldSavedCubicChunksData;
 import io.github.opencubicchunks.cubicchunks.core.world.type.VanillaCubicWorldType;
 import io.github.opencubicchunks.cubicchunks.core.worldgen.WorldgenHangWatchdog;
 import io.github.opencubicchunks.cubicchunks.core.worldgen.generator.vanilla.VanillaCompatibilityGenerator;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.ResourceLocation;
 import net.minecraft.world.World;
 import net.minecraft.world.gen.IChunkGenerator;
 import net.minecraftforge.common.MinecraftForge;
@@ -89,6 +93,7 @@ public class CubicChunks {
         try {
             // Versions newer than current will be only checked on the other side
             // (I know this can be hard to actually fully understand)
+            // changes to the packet formats are checked using NETWORK_PROTOCOL_VERSION instead, untagged builds all have the same version
             SUPPORTED_SERVER_VERSIONS = VersionRange.createFromVersionSpec("[1.12.2-0.0.887.0,)");
             SUPPORTED_CLIENT_VERSIONS = VersionRange.createFromVersionSpec("[1.12.2-0.0.887.0,)");
         } catch (InvalidVersionSpecificationException e) {
@@ -96,6 +101,16 @@ public class CubicChunks {
         }
     }
 
+    /**
+     * Has to be the same on both sides to connect. Increase it whenever the format of any packet changes.
+     * <ul>
+     *     <li>1: PacketCubes starts with the cube encoding and length prefixes, PacketCubeBlockChange holds runs of blocks in multiple cubes</li>
+     * </ul>
+     * Sent as the version of the coremod container, see {@link CubicChunksCoreContainer#getVersion()}. Older versions send their mod version
+     * there, which is never a valid protocol version.
+     */
+    public static final int NETWORK_PROTOCOL_VERSION = 1;
+
     public static final int MIN_SUPPORTED_BLOCK_Y = Integer.MIN_VALUE + 4096;
     public static final int MAX_SUPPORTED_BLOCK_Y = Integer.MAX_VALUE - 4095;
 
@@ -197,10 +212,30 @@ public class CubicChunks {
         event.getRegistry().register(new StorageFormatProviderBase() {
             @Override
             public ICubicStorage provideStorage(World world, Path path) throws IOException {
-                return new RegionCubeStorage(path);
+                return new RegionCubeStorage(path, getSavedCompression(world));
             }
         }.setRegistryName(StorageFormatProviderBase.DEFAULT)
                 .setUnlocalizedName("cubicchunks.gui.storagefmt.anvil3d"));
+        event.getRegistry().register(new StorageFormatProviderBase() {
+            @Override
+            public ICubicStorage provideStorage(World world, Path path) throws IOException {
+                return new RegionCubeStorage(path, getSavedCompression(world));
+            }
+
+            @Override
+            public boolean usesBinaryCubeData() {
+                return true;
+            }
+        }.setRegistryName(new ResourceLocation(MODID, "anvil3d_binary"))
+                .setUnlocalizedName("cubicchunks.gui.storagefmt.anvil3d_binary"));
+    }
+
+    private static CubeCompression getSavedCompression(World world) {
+        //the compression stored in the server's default world is used for all worlds, same as the storage format
+        World overworld = world.getMinecraftServer().getEntityWorld();
+        WorldSavedCubicChunksData savedData =
+                (WorldSavedCubicChunksData) overworld.getPerWorldStorage().getOrLoadData(WorldSavedCubicChunksData.class, "cubicChunksData");
+        return savedData == null ? CubeCompression.GZIP : savedData.compression;
     }
 
     @NetworkCheckHandler
@@ -212,7 +247,23 @@ public class CubicChunks {
             }
             return true; // allow connecting to server without CC
         }
-        if (!checkVersionFormat(MOD_VERSION, remoteSide.isClient() ? Side.SERVER : Side.CLIENT)) {
+        return isCompatibleVersion(MOD_VERSION, remoteFullVersion, modVersions.get(CubicChunksCoreContainer.MODID), remoteSide);
+    }
+
+    /**
+     * @param localVersion the mod version on this side
+     * @param remoteFullVersion the mod version on the other side
+     * @param remoteProtocol the network protocol version on the other side, null if the other side didn't send it
+     * @param remoteSide the other side
+     * @return whether this side can connect to the other side
+     */
+    public static boolean isCompatibleVersion(String localVersion, String remoteFullVersion, @Nullable String remoteProtocol, Side remoteSide) {
+        if (!String.valueOf(NETWORK_PROTOCOL_VERSION).equals(remoteProtocol)) {
+            LOGGER.warn("Connection attempt with incompatible " + remoteSide + " version " + remoteFullVersion + ": network protocol "
+                    + remoteProtocol + ", expected " + NETWORK_PROTOCOL_VERSION);
+            return false;
+        }
+        if (!checkVersionFormat(localVersion, remoteSide.isClient() ? Side.SERVER : Side.CLIENT)) {
             return true;
         }
         if (!checkVersionFormat(remoteFullVersion, remoteSide)) {
@@ -220,7 +271,7 @@ public class CubicChunks {
         }
 
         ArtifactVersion version = new DefaultArtifactVersion(remoteFullVersion);
-        ArtifactVersion currentVersion = new DefaultArtifactVersion(MOD_VERSION);
+        ArtifactVersion currentVersion = new DefaultArtifactVersion(localVersion);
         if (currentVersion.compareTo(version) < 0) {
             return true; // allow connection if this version is older, let newer one decide
         }
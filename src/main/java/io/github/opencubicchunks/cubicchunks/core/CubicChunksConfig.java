@@ -29,6 +29,7 @@ import com.google.common.collect.Range;
 import com.google.common.collect.TreeRangeSet;
 import io.github.opencubicchunks.cubicchunks.api.world.storage.StorageFormatProviderBase;
 import io.github.opencubicchunks.cubicchunks.api.worldgen.VanillaCompatibilityGeneratorProviderBase;
+import io.github.opencubicchunks.cubicchunks.core.server.chunkio.CubeCompression;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.client.resources.I18n;
 import net.minecraft.command.CommandBase;
@@ -78,6 +79,16 @@ public class CubicChunksConfig {
     @Config.LangKey("cubicchunks.config.chunk_gc_interval")
     public static int chunkGCInterval = 20 * 10;
 
+    @Config.Comment("Enables incremental chunk garbage collector. Instead of checking all loaded cubes and columns at once every "
+            + "chunkGCInterval ticks, the work is split across ticks and limited by chunkGCTimeBudgetNanos.")
+    @Config.LangKey("cubicchunks.config.incremental_chunk_gc")
+    public static boolean incrementalChunkGC = false;
+
+    @Config.Comment("Maximum amount of time (nanoseconds) the incremental chunk garbage collector can spend per tick, per dimension.")
+    @Config.LangKey("cubicchunks.config.chunk_gc_time_budget_nanos")
+    @Config.RangeInt(min = 1)
+    public static int chunkGCTimeBudgetNanos = 2_000_000;
+
     @Config.Comment("Eliminates a few data copies in compatibility generator. May break some mods." +
             " Disable if you experience issues in modded dimensions or world types")
     @Config.LangKey("cubicchunks.config.optimized_compatibility_generator")
@@ -100,6 +111,28 @@ public class CubicChunksConfig {
     @Config.Comment("Maximum amount of time spent on generating chunks per dimension.")
     public static int maxCubeGenerationTimeMillis = 50;
 
+    @Config.LangKey("cubicchunks.config.cube_generation_threads")
+    @Config.Comment("The number of threads used to generate cubes for players, for world generators that support concurrent cube generation. "
+            + "Population and lighting are still done on the server thread. If set to 0, all cubes are generated on the server thread. "
+            + "Disabled by default.")
+    @Config.RangeInt(min = 0, max = 64)
+    @Config.RequiresMcRestart
+    public static int cubeGenerationThreads = 0;
+
+    @Config.LangKey("cubicchunks.config.parallel_lighting_threads")
+    @Config.Comment("The number of threads used to process large amounts of light updates, for example after explosions or large world edits. "
+            + "The server thread waits for them to finish. Block light values and opacity are then queried from multiple threads at once, "
+            + "which may not work with mods that don't expect that. If set to 0, all light updates are processed on the server thread.")
+    @Config.RangeInt(min = 0, max = 64)
+    @Config.RequiresMcRestart
+    public static int parallelLightingThreads = 0;
+
+    @Config.LangKey("cubicchunks.config.light_update_queue_pool_size")
+    @Config.Comment("The maximum amount of memory in megabytes kept for light update queues while no light updates are being processed. "
+            + "It's shared by all dimensions. Memory used for light updates beyond this is freed after the updates are done.")
+    @Config.RangeInt(min = 0, max = 4096)
+    public static int lightUpdateQueuePoolSize = 32;
+
     @Config.LangKey("cubicchunks.config.use_vanilla_world_generators")
     @Config.Comment("Enabling this option will force cubic chunks to use world generators designed for two dimensional chunks, which are often used "
             + "for custom ore generators added by mods. To do so cubic chunks will pregenerate cubes in a range of height from 0 to 255. This is "
@@ -160,9 +193,19 @@ public class CubicChunksConfig {
 
     @Config.LangKey("cubicchunks.config.storage_format")
     @Config.Comment("The storage format. Note: this will be used for all newly created worlds. Existing worlds will continue to use the format they were created with.\n"
-                    + "If empty, the storage format for new worlds will be determined automatically.")
+                    + "If empty, the storage format for new worlds will be determined automatically.\n"
+                    + "cubicchunks:anvil3d_binary stores cube blocks, light and biomes in a compact binary form, which is faster to save and load "
+                    + "but can't be read by tools that expect the cubicchunks:anvil3d format.")
     public static String storageFormat = "";
 
+    @Config.LangKey("cubicchunks.config.storage_compression")
+    @Config.Comment("The compression used for cubes and columns in region files of newly created worlds. Existing worlds keep the compression "
+            + "they were created with.\n"
+            + "GZIP - the original format, smallest files but slowest\n"
+            + "DEFLATE_FAST - faster to save and load at the cost of slightly larger files\n"
+            + "NONE - no compression, useful when the world is stored on a filesystem that compresses data itself")
+    public static CubeCompression storageCompression = CubeCompression.GZIP;
+
     @Config.LangKey("cubicchunks.config.spawn_generate_distance_horizontal")
     @Config.Comment("Horizontal distance for initially generated spawn area")
     public static int spawnGenerateDistanceXZ = 12;
@@ -201,9 +244,15 @@ public class CubicChunksConfig {
     public static boolean allowVanillaClients = false;
 
     @Config.LangKey("cubicchunks.config.cubes_to_send_per_tick")
-    @Config.Comment("Max amount of cubes sent to client per tick to players")
+    @Config.Comment("Max amount of cubes sent to client per tick to players. The amount sent to each player is adjusted to how fast "
+            + "their connection can take them, up to this limit.")
     public static int cubesToSendPerTick = 81 * 8 + 1;
 
+    @Config.LangKey("cubicchunks.config.cull_occluded_cubes")
+    @Config.Comment("When more cubes are waiting to be sent to a player than can be sent in one tick, send the ones the player can't see "
+            + "through non-opaque blocks last. Cubes are still loaded and eventually sent as usual.")
+    public static boolean cullOccludedCubes = false;
+
     @Config.LangKey("cubicchunks.config.vanilla_clients")
     @Config.Comment("Options relating to support for vanilla clients.")
     public static VanillaClients vanillaClients = new VanillaClients();
@@ -214,10 +263,48 @@ public class CubicChunksConfig {
     @Config.RequiresWorldRestart
     public static boolean useShadowPagingIO = true;
 
+    @Config.LangKey("cubicchunks.config.region_write_threads")
+    @Config.Comment("The number of threads used to write different region files in parallel when saving. Writes to the same region file are "
+            + "still done in order. If set to 0, all region files are written one after another by the save thread.")
+    @Config.RangeInt(min = 0, max = 64)
+    @Config.RequiresMcRestart
+    public static int regionWriteThreads = 0;
+
+    @Config.LangKey("cubicchunks.config.memory_mapped_region_reads")
+    @Config.Comment("Whether region files should be memory mapped for reading when useShadowPagingIO is enabled. This avoids a file read for each "
+            + "loaded cube, which helps when many cubes are loaded, but region files are no longer truncated when space at their end is freed.")
+    @Config.RequiresWorldRestart
+    public static boolean memoryMappedRegionReads = false;
+
+    @Config.LangKey("cubicchunks.config.region_compaction_interval_minutes")
+    @Config.Comment("How often, in minutes, fragmented region files are compacted in the background when useShadowPagingIO is enabled. Compaction "
+            + "stores the cubes of each region next to each other, vertically adjacent cubes first, and shrinks the file. 0 disables compaction.")
+    @Config.RangeInt(min = 0)
+    @Config.RequiresWorldRestart
+    public static int regionCompactionIntervalMinutes = 0;
+
+    @Config.LangKey("cubicchunks.config.region_compaction_max_bytes_per_second")
+    @Config.Comment("The maximum number of bytes per second read and written by region compaction, to avoid competing with cube loading and saving.")
+    @Config.RangeInt(min = 65536)
+    public static int regionCompactionMaxBytesPerSecond = 4 * 1024 * 1024;
+
+    @Config.LangKey("cubicchunks.config.max_queued_cube_saves")
+    @Config.Comment("The maximum number of cubes waiting to be written to disk. When the save queue grows above this limit, the server thread "
+            + "waits for the save thread to catch up before saving more cubes. This limits memory usage when cubes are saved faster than "
+            + "they can be written. Set to 0 to disable the limit.")
+    @Config.RangeInt(min = 0)
+    public static int maxQueuedCubeSaves = 16384;
+
     @Config.LangKey("cubicchunks.config.ignore_corrupted_chunks")
     @Config.Comment("Ignores and regenerates corrupted chunks instead of crashing the server")
     public static boolean ignoreCorruptedChunks = false;
 
+    @Config.LangKey("cubicchunks.config.use_packed_cube_map")
+    @Config.Comment("Whether loaded cubes should be indexed by a hash map that stores cube coordinates inline, instead of reading them from "
+            + "each cube on lookup. This uses a bit more memory per loaded cube but makes cube lookups faster with many loaded cubes.")
+    @Config.RequiresWorldRestart
+    public static boolean usePackedCubeMap = false;
+
     public static final class VanillaClients {
 
         @Config.LangKey("cubicchunks.config.vanilla_clients.horizontal_slices")
@@ -37,12 +37,13 @@ import java.util.Collections;
 import java.util.List;
 
 public class CubicChunksCoreContainer extends DummyModContainer {
+    public static final String MODID = "cubicchunkscore";
     public static Logger LOGGER = LogManager.getLogger("CubicChunkcCore");
 
     public CubicChunksCoreContainer() {
         super(new ModMetadata());
         ModMetadata meta = getMetadata();
-        meta.modId = "cubicchunkscore";
+        meta.modId = MODID;
         meta.name = "Cubic Chunks Coremod";
         meta.version = getClass().getPackage().getImplementationVersion();
         if (meta.version == null) {
@@ -53,6 +54,20 @@ public class CubicChunksCoreContainer extends DummyModContainer {
         meta.parent = "cubicchunks";
     }
 
+    /**
+     * The versions of all mods are sent to the other side when connecting, this one is used to send the network protocol version so that it
+     * can be checked before any packets are sent. The actual version is still shown as the display version.
+     */
+    @Override
+    public String getVersion() {
+        return String.valueOf(CubicChunks.NETWORK_PROTOCOL_VERSION);
+    }
+
+    @Override
+    public String getDisplayVersion() {
+        return getMetadata().version;
+    }
+
     @Override
     public List<ArtifactVersion> getDependencies() {
         return Collections.emptyList();
@@ -28,7 +28,10 @@ import io.github.opencubicchunks.cubicchunks.api.world.CubeEvent;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.client.IChunkProviderClient;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.util.IXYZMap;
+import io.github.opencubicchunks.cubicchunks.api.util.PackedXYZMap;
 import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
@@ -53,7 +56,8 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
 
     @Nonnull private ICubicWorldInternal.Client world;
     @Nonnull private Cube blankCube;
-    @Nonnull private XYZMap<Cube> cubeMap = new XYZMap<>(0.7f, 8000);
+    @Nonnull private IXYZMap<Cube> cubeMap = CubicChunksConfig.usePackedCubeMap ?
+            new PackedXYZMap<>(0.7f, 8000) : new XYZMap<>(0.7f, 8000);
 
     public CubeProviderClient(ICubicWorldInternal.Client world) {
         super((World) world);
@@ -25,9 +25,11 @@
 package io.github.opencubicchunks.cubicchunks.core.lighting;
 
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToLocal;
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMaxBlock;
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMinBlock;
 
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.util.MathUtil;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
@@ -39,9 +41,18 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.BlockPos.MutableBlockPos;
 import net.minecraft.world.EnumSkyBlock;
 import net.minecraft.world.IBlockAccess;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -68,15 +79,7 @@ public class FirstLightProcessor {
      */
     public void diffuseSkylight(ICube cube) {
         ILightingManager lm = ((ICubicWorldInternal) cube.getWorld()).getLightingManager();
-        Iterable<? extends BlockPos.MutableBlockPos> allBlocks = BlockPos.getAllInBoxMutable(
-                cube.getCoords().getMinBlockPos(),
-                cube.getCoords().getMaxBlockPos()
-        );
-        for (BlockPos.MutableBlockPos pos : allBlocks) {
-            if (cube.getBlockState(pos).getLightValue(cube.getWorld(), pos) > 0) {
-                lm.checkLightFor(EnumSkyBlock.BLOCK, pos);
-            }
-        }
+        scheduleBlockLightSources(lm, cube);
         if (!cube.getWorld().provider.hasSkyLight()) {
             return;
         }
@@ -86,10 +89,7 @@ public class FirstLightProcessor {
         int[][] maxBlockYArr = new int[Cube.SIZE][Cube.SIZE];
 
         int minBlockX = cubeToMinBlock(cube.getX());
-        int maxBlockX = cubeToMaxBlock(cube.getX());
-
         int minBlockZ = cubeToMinBlock(cube.getZ());
-        int maxBlockZ = cubeToMaxBlock(cube.getZ());
 
         // the lowest minHeight and the highest maxHeight values
         // used to make the cube iteration the outer loop, so light propagator can do mass light updates
@@ -144,6 +144,161 @@ public class FirstLightProcessor {
             }
         }
 
+        diffuseSkylightInAffectedCubes(lm, column, minBlockX, minBlockZ, minBlockYArr, maxBlockYArr, maxMaxHeight,
+                otherCube -> otherCube == cube || otherCube.isInitialLightingDone());
+    }
+
+    /**
+     * Diffuses skylight in a group of freshly generated cubes at once. Vertically adjacent cubes of the group are lit together, with one top-down
+     * sweep per block column writing skylight directly into their storage wherever it follows from the heightmap alone. Light updates are only
+     * scheduled for the blocks where light may have to spread sideways, including into cubes outside of the group.
+     *
+     * @param cubes the cubes whose skylight is to be initialized
+     */
+    public void diffuseSkylight(Collection<Cube> cubes) {
+        if (cubes.isEmpty()) {
+            return;
+        }
+        if (cubes.size() == 1) {
+            diffuseSkylight(cubes.iterator().next());
+            return;
+        }
+        World world = cubes.iterator().next().getWorld();
+        ILightingManager lm = ((ICubicWorldInternal) world).getLightingManager();
+
+        Map<CubePos, Cube> group = new HashMap<>();
+        for (Cube cube : cubes) {
+            group.put(cube.getCoords(), cube);
+            scheduleBlockLightSources(lm, cube);
+        }
+        if (!world.provider.hasSkyLight()) {
+            return;
+        }
+        Predicate<ICube> isLit = otherCube -> otherCube.isInitialLightingDone() || group.get(otherCube.getCoords()) == otherCube;
+        for (Cube cube : cubes) {
+            // start a run of vertically adjacent cubes at each cube with nothing from the group above it
+            if (group.containsKey(cube.getCoords().above())) {
+                continue;
+            }
+            List<Cube> run = new ArrayList<>();
+            for (Cube runCube = cube; runCube != null; runCube = group.get(runCube.getCoords().below())) {
+                run.add(runCube);
+            }
+            diffuseSkylightInRun(lm, world, run, isLit);
+        }
+    }
+
+    /**
+     * Initializes skylight in a run of vertically adjacent cubes, ordered from the top one down.
+     */
+    private void diffuseSkylightInRun(ILightingManager lm, World world, List<Cube> run, Predicate<ICube> isLit) {
+        Cube top = run.get(0);
+        Cube bottom = run.get(run.size() - 1);
+        IColumnInternal column = top.getColumn();
+
+        // the neighbour columns towards -x, +x, -z and +z, null if not loaded
+        IColumnInternal[] adjacent = new IColumnInternal[4];
+        int columnX = top.getX();
+        int columnZ = top.getZ();
+        adjacent[0] = (IColumnInternal) world.getChunkProvider().getLoadedChunk(columnX - 1, columnZ);
+        adjacent[1] = (IColumnInternal) world.getChunkProvider().getLoadedChunk(columnX + 1, columnZ);
+        adjacent[2] = (IColumnInternal) world.getChunkProvider().getLoadedChunk(columnX, columnZ - 1);
+        adjacent[3] = (IColumnInternal) world.getChunkProvider().getLoadedChunk(columnX, columnZ + 1);
+
+        int topCubeY = top.getY();
+        int runMinBlockY = bottom.getCoords().getMinBlockY();
+        int runMaxBlockY = top.getCoords().getMaxBlockY();
+        int minBlockX = top.getCoords().getMinBlockX();
+        int minBlockZ = top.getCoords().getMinBlockZ();
+
+        int[][] minBlockYArr = new int[Cube.SIZE][Cube.SIZE];
+        int[][] maxBlockYArr = new int[Cube.SIZE][Cube.SIZE];
+        int maxMaxHeight = Integer.MIN_VALUE;
+
+        for (int localX = 0; localX < Cube.SIZE; ++localX) {
+            for (int localZ = 0; localZ < Cube.SIZE; ++localZ) {
+                int height = column.getTopYWithStaging(localX, localZ);
+                if (height < runMaxBlockY) {
+                    // above both this and the neighbouring heights, light doesn't spread anywhere, so it can be written directly
+                    int maxNeighbor = MathUtil.max(
+                            getTopY(column, adjacent, localX - 1, localZ),
+                            getTopY(column, adjacent, localX + 1, localZ),
+                            getTopY(column, adjacent, localX, localZ - 1),
+                            getTopY(column, adjacent, localX, localZ + 1));
+                    int minInstantFill = MathUtil.max(height + 2, maxNeighbor + 1, runMinBlockY);
+
+                    int minY = Math.max(height, runMinBlockY);
+                    for (int blockY = runMaxBlockY; blockY >= minY; blockY--) {
+                        Cube cube = run.get(topCubeY - blockToCube(blockY));
+                        if (blockY >= minInstantFill) {
+                            // without storage, skylight above the heightmap is already 15
+                            ExtendedBlockStorage storage = cube.getStorage();
+                            if (storage != null && storage.getSkyLight() != null) {
+                                storage.setSkyLight(localX, blockToLocal(blockY), localZ, 15);
+                            }
+                        } else {
+                            mutablePos.setPos(minBlockX + localX, blockY, minBlockZ + localZ);
+                            lm.checkLightFor(EnumSkyBlock.SKY, mutablePos);
+                        }
+                    }
+                }
+
+                // the update range below is the same for every cube of the run, the bottom one covers all of them
+                Pair<Integer, Integer> minMax = getMinMaxLightUpdateY(bottom, localX, localZ);
+                int min = minMax == null ? Integer.MAX_VALUE : minMax.getLeft();
+                int max = minMax == null ? Integer.MIN_VALUE : minMax.getRight();
+                minBlockYArr[localX][localZ] = min;
+                maxBlockYArr[localX][localZ] = max;
+                maxMaxHeight = Math.max(max, maxMaxHeight);
+            }
+        }
+        for (Cube cube : run) {
+            cube.markDirty();
+        }
+
+        diffuseSkylightInAffectedCubes(lm, column, minBlockX, minBlockZ, minBlockYArr, maxBlockYArr, maxMaxHeight, isLit);
+    }
+
+    private static int getTopY(IColumnInternal column, IColumnInternal[] adjacent, int localX, int localZ) {
+        IColumnInternal target = column;
+        if (localX < 0) {
+            target = adjacent[0];
+        } else if (localX >= Cube.SIZE) {
+            target = adjacent[1];
+        } else if (localZ < 0) {
+            target = adjacent[2];
+        } else if (localZ >= Cube.SIZE) {
+            target = adjacent[3];
+        }
+        if (target == null) {
+            // unknown height, never write light directly next to it
+            return Integer.MAX_VALUE - 1;
+        }
+        return target.getTopYWithStaging(blockToLocal(localX), blockToLocal(localZ));
+    }
+
+    private static void scheduleBlockLightSources(ILightingManager lm, ICube cube) {
+        if (cube.getStorage() == null) {
+            return;
+        }
+        Iterable<? extends BlockPos.MutableBlockPos> allBlocks = BlockPos.getAllInBoxMutable(
+                cube.getCoords().getMinBlockPos(),
+                cube.getCoords().getMaxBlockPos()
+        );
+        for (BlockPos.MutableBlockPos pos : allBlocks) {
+            if (cube.getBlockState(pos).getLightValue(cube.getWorld(), pos) > 0) {
+                lm.checkLightFor(EnumSkyBlock.BLOCK, pos);
+            }
+        }
+    }
+
+    /**
+     * Diffuses skylight in the given block columns of all loaded cubes below maxMaxHeight that already have their skylight initialized.
+     */
+    private void diffuseSkylightInAffectedCubes(ILightingManager lm, IColumnInternal column, int minBlockX, int minBlockZ,
+            int[][] minBlockYArr, int[][] maxBlockYArr, int maxMaxHeight, Predicate<ICube> isLit) {
+        int maxBlockX = minBlockX + Cube.SIZE - 1;
+        int maxBlockZ = minBlockZ + Cube.SIZE - 1;
         // Iterate over all affected cubes.
         Iterable<? extends ICube> cubes = column.getLoadedCubes(blockToCube(maxMaxHeight), blockToCube(/*minMinHeight*/Integer.MIN_VALUE));
         for (ICube otherCube : cubes) {
@@ -163,7 +318,7 @@ public class FirstLightProcessor {
                         continue;
                     }
 
-                    if (otherCube != cube && !otherCube.isInitialLightingDone()) {
+                    if (!isLit.test(otherCube)) {
                         continue;
                     }
 
@@ -33,6 +33,8 @@ import net.minecraft.world.EnumSkyBlock;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
+import java.util.Collection;
+
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @ParametersAreNonnullByDefault
@@ -91,4 +93,14 @@ public interface ILightingManager {
     void onTrackCubeSurface(ICube cube);
 
     void doFirstLight(ICube cube);
+
+    /**
+     * Initializes lighting of many freshly generated cubes at once, see {@link FirstLightProcessor#diffuseSkylight(Collection)}
+     */
+    void doFirstLight(Collection<Cube> cubes);
+
+    /**
+     * @return the largest number of light updates of the given type that have been scheduled at once in this world
+     */
+    int getPeakQueueDepth(EnumSkyBlock lightType);
 }
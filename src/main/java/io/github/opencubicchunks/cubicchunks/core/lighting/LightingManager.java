@@ -46,6 +46,7 @@ import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
 import java.util.Arrays;
+import java.util.Collection;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -167,6 +168,15 @@ public class LightingManager implements ILightingManager {
         firstLightProcessor.diffuseSkylight(cube);
     }
 
+    @Override public void doFirstLight(Collection<Cube> cubes) {
+        assert firstLightProcessor != null;
+        firstLightProcessor.diffuseSkylight(cubes);
+    }
+
+    @Override public int getPeakQueueDepth(EnumSkyBlock lightType) {
+        return lightEngine.getPeakQueueDepth(lightType);
+    }
+
     /**
      * If lastHeightMap is not null, update current height map from saved data
      */
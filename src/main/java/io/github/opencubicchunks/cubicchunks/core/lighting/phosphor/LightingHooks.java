@@ -31,9 +31,98 @@ public class LightingHooks {
         final int xBase = localToBlock(chunk.x, localX);
         final int zBase = localToBlock(chunk.z, localZ);
 
+        if (world.provider.hasSkyLight()) {
+            // everything above the top block sees the sky, so its light is known without propagating it
+            final int top = ((IColumnInternal) chunk).getTopYWithStaging(localX, localZ);
+            final int skyMin = getSkylightFillMin(yMin, yMax, top);
+            if (skyMin <= yMax) {
+                fillSkylightForColumnSpan(world, chunk, xBase, zBase, skyMin, yMax);
+                // the block below the span is now lit from above
+                scheduleRelightChecksForColumn(world, chunk, EnumSkyBlock.SKY, xBase, zBase, Math.min(yMin, skyMin - 1), skyMin - 1);
+                return;
+            }
+        }
         scheduleRelightChecksForColumn(world, chunk, EnumSkyBlock.SKY, xBase, zBase, yMin, yMax);
     }
 
+    /**
+     * Returns the lowest block between {@code yMin} and {@code yMax} which is above the top block {@code top}, from where skylight can be
+     * filled directly up to {@code yMax}. If no block of the span is above the top block, {@code yMax + 1} is returned.
+     */
+    public static int getSkylightFillMin(final int yMin, final int yMax, final int top) {
+        return yMax > top ? Math.max(yMin, top + 1) : yMax + 1;
+    }
+
+    /**
+     * Sets skylight to 15 for the whole vertical span, which has to be above the top block of the column, and only schedules light checks next
+     * to it where light can spread sideways. This avoids scheduling a check for every block when a tall column opens up to the sky.
+     */
+    private static void fillSkylightForColumnSpan(final World world, final Chunk chunk, final int x, final int z, final int yMin, final int yMax) {
+        final int yMinCube = blockToCube(yMin);
+        final int yMaxCube = blockToCube(yMax);
+        final int localX = blockToLocal(x);
+        final int localZ = blockToLocal(z);
+        final ICubeProvider provider = (ICubeProvider) world.getChunkProvider();
+
+        Iterable<? extends ICube> cubes = ((IColumn) chunk).getLoadedCubes(yMaxCube, yMinCube);
+
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        BlockPos.MutableBlockPos nPos = new BlockPos.MutableBlockPos();
+
+        for (ICube cube : cubes) {
+            int cubeY = cube.getY();
+            int baseY = cubeToMinBlock(cubeY);
+            int minLocalY = cubeY == yMinCube ? blockToLocal(yMin) : 0;
+            int maxLocalY = cubeY == yMaxCube ? blockToLocal(yMax) : 15;
+
+            // empty cubes have no light stored, so storage has to exist before the span can be lit
+            ExtendedBlockStorage storage = cube.getStorage();
+            if (storage == null) {
+                storage = new ExtendedBlockStorage(baseY, true);
+                ((Cube) cube).setStorage(storage);
+            }
+            for (int localY = minLocalY; localY <= maxLocalY; localY++) {
+                storage.setSkyLight(localX, localY, localZ, EnumSkyBlock.SKY.defaultLightValue);
+            }
+            ((Cube) cube).markDirty();
+
+            for (final EnumFacing dir : EnumFacing.HORIZONTALS) {
+                final int nx = x + dir.getXOffset();
+                final int nz = z + dir.getZOffset();
+                final ICube nCube = blockToCube(nx) == cube.getX() && blockToCube(nz) == cube.getZ()
+                        ? cube : provider.getLoadedCube(blockToCube(nx), cubeY, blockToCube(nz));
+
+                for (int localY = minLocalY; localY <= maxLocalY; localY++) {
+                    pos.setPos(x, baseY + localY, z);
+                    if (nCube == null) {
+                        flagSecBoundaryForUpdate(cube, pos, EnumSkyBlock.SKY, dir, EnumBoundaryFacing.OUT);
+                        continue;
+                    }
+                    nPos.setPos(nx, baseY + localY, nz);
+                    if (canSkylightSpreadTo(world, nCube, nPos)) {
+                        world.checkLightFor(EnumSkyBlock.SKY, nPos);
+                    }
+                }
+            }
+        }
+        world.markBlockRangeForRenderUpdate(x, yMin, z, x, yMax, z);
+    }
+
+    /**
+     * Only neighbours that let light in and are darker than what they get from a column open to the sky can change.
+     */
+    private static boolean canSkylightSpreadTo(final World world, final ICube nCube, final BlockPos nPos) {
+        final ExtendedBlockStorage nStorage = nCube.getStorage();
+        if (nStorage == null) {
+            // all air without stored light, which gets full skylight above the top block once storage is created
+            final int nTop = ((IColumnInternal) nCube.getColumn()).getTopYWithStaging(blockToLocal(nPos.getX()), blockToLocal(nPos.getZ()));
+            return nPos.getY() <= nTop;
+        }
+        return nStorage.getSkyLight(blockToLocal(nPos.getX()), blockToLocal(nPos.getY()), blockToLocal(nPos.getZ()))
+                < EnumSkyBlock.SKY.defaultLightValue - 1
+                && nCube.getBlockState(nPos).getLightOpacity(world, nPos) < 15;
+    }
+
     public static void scheduleRelightChecksForArea(final World world, final EnumSkyBlock lightType, final int xMin, final int yMin, final int zMin,
             final int xMax, final int yMax, final int zMax) {
         // TODO: cache chunk
@@ -0,0 +1,210 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2021 OpenCubicChunks
+ *  Copyright (c) 2015-2021 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.lighting.phosphor;
+
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.World;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes large amounts of light updates on multiple threads, while the server thread waits for them to finish.
+ * <p>
+ * Updates are split into shards of 4x4x4 cubes, and each shard is processed by a separate {@link PhosphorLightEngine} which only changes
+ * light within its shard. Shards are processed in 8 phases by the parity of their coordinates, so shards processed at the same time are
+ * never next to each other, and no worker reads light that another thread is changing. Where light would spread into another shard, both
+ * positions at the shard boundary are checked again in the next round, like a light check scheduled on the server thread would be. This is repeated
+ * until light doesn't need to spread between shards anymore.
+ * <p>
+ * Workers write light directly to the storage of their own cubes and never to shared column state. World listeners are notified about the
+ * changed positions on the server thread, after each phase.
+ */
+final class ParallelLightPropagator {
+
+    // the queue has to be at least this large for the updates to be processed in parallel, smaller updates are faster on one thread
+    static final int MIN_PARALLEL_UPDATES = 1024;
+    // shards are 2^SHARD_SIZE_SHIFT cubes in each direction
+    private static final int SHARD_SIZE_SHIFT = 2;
+    // if light still spreads between shards after this many rounds, the rest is processed on the server thread
+    private static final int MAX_ROUNDS = 32;
+    // shards are processed in 2x2x2 groups of phases, one phase after another
+    private static final int PHASE_COUNT = 8;
+
+    private static ExecutorService lightingExecutor;
+
+    private static synchronized ExecutorService lightingExecutor() {
+        if (lightingExecutor == null) {
+            AtomicInteger threadCounter = new AtomicInteger();
+            lightingExecutor = Executors.newFixedThreadPool(CubicChunksConfig.parallelLightingThreads, r -> {
+                Thread thread = new Thread(r, "Cubic Chunks Lighting Thread #" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return lightingExecutor;
+    }
+
+    private final World world;
+    // engines not currently processing a shard, reused to keep their queue segments
+    private final ConcurrentLinkedQueue<PhosphorLightEngine> idleWorkers = new ConcurrentLinkedQueue<>();
+
+    ParallelLightPropagator(World world) {
+        this.world = world;
+    }
+
+    static int blockToShard(int blockCoord) {
+        return blockCoord >> (4 + SHARD_SIZE_SHIFT);
+    }
+
+    /**
+     * Processes the updates in the queue in parallel. Updates that couldn't be processed are left in the queue, which is the case when all of
+     * them are in one shard, or when light keeps spreading between shards for too many rounds.
+     */
+    void process(EnumSkyBlock lightType, PooledLightUpdateQueue queue) {
+        Long2ObjectMap<IntArrayList> shards = new Long2ObjectOpenHashMap<>();
+        PooledLightUpdateQueue.LightUpdateQueueIterator it = queue.iterator();
+        while (it.hasNext()) {
+            addToShard(shards, it.x(), it.y(), it.z());
+            it.next();
+        }
+        if (shards.size() < 2) {
+            return; // nothing to gain, the queue is left as it is
+        }
+        it.finish();
+
+        try {
+            int round = 0;
+            while (!shards.isEmpty()) {
+                if (round++ == MAX_ROUNDS) {
+                    CubicChunks.LOGGER.debug("Light still spreading between {} shards after {} rounds, finishing on the server thread", shards.size(),
+                            MAX_ROUNDS);
+                    for (IntArrayList positions : shards.values()) {
+                        for (int i = 0; i < positions.size(); i += 3) {
+                            queue.add(positions.getInt(i), positions.getInt(i + 1), positions.getInt(i + 2), 0);
+                        }
+                    }
+                    return;
+                }
+                shards = processRound(lightType, shards);
+            }
+        } finally {
+            // all rounds are joined, so every worker is idle here
+            for (PhosphorLightEngine worker : idleWorkers) {
+                worker.releaseIdleQueueSegments();
+            }
+        }
+    }
+
+    private Long2ObjectMap<IntArrayList> processRound(EnumSkyBlock lightType, Long2ObjectMap<IntArrayList> shards) {
+        Long2ObjectMap<IntArrayList> nextRound = new Long2ObjectOpenHashMap<>();
+        // shards of the same phase are never next to each other, so no shard reads light that another thread is changing
+        for (int phase = 0; phase < PHASE_COUNT; phase++) {
+            List<CompletableFuture<ShardResult>> results = new ArrayList<>();
+            for (IntArrayList positions : shards.values()) {
+                if (getPhase(positions) == phase) {
+                    results.add(CompletableFuture.supplyAsync(() -> processShard(lightType, positions), lightingExecutor()));
+                }
+            }
+            for (CompletableFuture<ShardResult> future : results) {
+                ShardResult result = future.join();
+                for (int i = 0; i < result.handoffs.size(); i += 3) {
+                    addToShard(nextRound, result.handoffs.getInt(i), result.handoffs.getInt(i + 1), result.handoffs.getInt(i + 2));
+                }
+                // world listeners may only be notified on the server thread
+                for (int i = 0; i < result.lightChanges.size(); i += 3) {
+                    this.world.notifyLightSet(new BlockPos(result.lightChanges.getInt(i), result.lightChanges.getInt(i + 1),
+                            result.lightChanges.getInt(i + 2)));
+                }
+            }
+        }
+        return nextRound;
+    }
+
+    private ShardResult processShard(EnumSkyBlock lightType, IntArrayList positions) {
+        PhosphorLightEngine worker = idleWorkers.poll();
+        if (worker == null) {
+            worker = new PhosphorLightEngine(world, true);
+        }
+        try {
+            worker.beginShard(blockToShard(positions.getInt(0)), blockToShard(positions.getInt(1)), blockToShard(positions.getInt(2)));
+            for (int i = 0; i < positions.size(); i += 3) {
+                worker.scheduleShardLightUpdate(lightType, positions.getInt(i), positions.getInt(i + 1), positions.getInt(i + 2));
+            }
+            worker.processShard(lightType);
+            // copied because the worker's lists are reused for the next shard as soon as the worker is idle again
+            return new ShardResult(new IntArrayList(worker.getShardHandoffs()), new IntArrayList(worker.getShardLightChanges()));
+        } finally {
+            idleWorkers.add(worker);
+        }
+    }
+
+    private static int getPhase(IntArrayList positions) {
+        return (blockToShard(positions.getInt(0)) & 1)
+                | (blockToShard(positions.getInt(1)) & 1) << 1
+                | (blockToShard(positions.getInt(2)) & 1) << 2;
+    }
+
+    private static void addToShard(Long2ObjectMap<IntArrayList> shards, int x, int y, int z) {
+        long key = shardKey(blockToShard(x), blockToShard(y), blockToShard(z));
+        IntArrayList positions = shards.get(key);
+        if (positions == null) {
+            positions = new IntArrayList();
+            shards.put(key, positions);
+        }
+        positions.add(x);
+        positions.add(y);
+        positions.add(z);
+    }
+
+    private static long shardKey(int shardX, int shardY, int shardZ) {
+        // shard coordinates fit in 21 bits even for the largest world sizes
+        return (shardX & 0x1FFFFFL) << 42 | (shardY & 0x1FFFFFL) << 21 | (shardZ & 0x1FFFFFL);
+    }
+
+    private static final class ShardResult {
+
+        // positions to check again in the next round, as x, y, z triples
+        final IntArrayList handoffs;
+        // positions where light changed, as x, y, z triples
+        final IntArrayList lightChanges;
+
+        ShardResult(IntArrayList handoffs, IntArrayList lightChanges) {
+            this.handoffs = handoffs;
+            this.lightChanges = lightChanges;
+        }
+    }
+}
@@ -33,9 +33,11 @@ import io.github.opencubicchunks.cubicchunks.api.util.Coords;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubeProvider;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.lighting.phosphor.LightingHooks.EnumBoundaryFacing;
 import io.github.opencubicchunks.cubicchunks.core.world.IColumnInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.client.Minecraft;
 import net.minecraft.profiler.Profiler;
@@ -51,6 +53,8 @@ import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
 import java.util.concurrent.locks.ReentrantLock;
 
+import javax.annotation.Nullable;
+
 public class PhosphorLightEngine {
     public static final boolean ENABLE_ILLEGAL_THREAD_ACCESS_WARNINGS = true;
 
@@ -69,6 +73,11 @@ public class PhosphorLightEngine {
     private final PooledLightUpdateQueue[] queuedDarkenings = new PooledLightUpdateQueue[MAX_LIGHT + 1];
     private final PooledLightUpdateQueue[] queuedBrightenings = new PooledLightUpdateQueue[MAX_LIGHT + 1];
 
+    private final PooledLightUpdateQueue.Pool pool = new PooledLightUpdateQueue.Pool();
+
+    // the largest number of updates scheduled at once for each light type, for diagnostics
+    private final int[] peakQueueDepth = new int[EnumSkyBlock.values().length];
+
     // value=newLight
     private final PooledLightUpdateQueue initialBrightenings;
     // value=padding
@@ -106,25 +115,42 @@ public class PhosphorLightEngine {
 
     private final ReentrantLock lock = new ReentrantLock();
 
+    // used to process large amounts of updates on multiple threads, null if parallel lighting is disabled
+    @Nullable private final ParallelLightPropagator parallelPropagator;
+
+    // shard worker state, only used by engines created by ParallelLightPropagator. Updates that would spread outside of the shard
+    // are added to shardHandoffs instead, as x, y, z triples
+    private final boolean shardWorker;
+    private int shardX, shardY, shardZ;
+    private final IntArrayList shardHandoffs = new IntArrayList();
+    // positions where light changed in the current shard, as x, y, z triples. World listeners can only be notified on the server thread
+    private final IntArrayList shardLightChanges = new IntArrayList();
+
     public PhosphorLightEngine(final World world) {
-        this.world = world;
-        this.profiler = world.profiler;
+        this(world, false);
+    }
 
-        PooledLightUpdateQueue.Pool pool = new PooledLightUpdateQueue.Pool();
+    PhosphorLightEngine(final World world, final boolean shardWorker) {
+        this.world = world;
+        this.shardWorker = shardWorker;
+        // the profiler can only be used from the server thread, so shard workers use one which is never enabled
+        this.profiler = shardWorker ? new Profiler() : world.profiler;
+        this.parallelPropagator = !shardWorker && !world.isRemote && CubicChunksConfig.parallelLightingThreads > 0
+                ? new ParallelLightPropagator(world) : null;
 
-        this.initialBrightenings = new PooledLightUpdateQueue(pool);
-        this.initialDarkenings = new PooledLightUpdateQueue(pool);
+        this.initialBrightenings = new PooledLightUpdateQueue(this.pool);
+        this.initialDarkenings = new PooledLightUpdateQueue(this.pool);
 
         for (int i = 0; i < EnumSkyBlock.values().length; ++i) {
-            this.queuedLightUpdates[i] = new PooledLightUpdateQueue(pool);
+            this.queuedLightUpdates[i] = new PooledLightUpdateQueue(this.pool);
         }
 
         for (int i = 0; i < this.queuedDarkenings.length; ++i) {
-            this.queuedDarkenings[i] = new PooledLightUpdateQueue(pool);
+            this.queuedDarkenings[i] = new PooledLightUpdateQueue(this.pool);
         }
 
         for (int i = 0; i < this.queuedBrightenings.length; ++i) {
-            this.queuedBrightenings[i] = new PooledLightUpdateQueue(pool);
+            this.queuedBrightenings[i] = new PooledLightUpdateQueue(this.pool);
         }
 
         for (int i = 0; i < this.neighborInfos.length; ++i) {
@@ -198,13 +224,108 @@ public class PhosphorLightEngine {
         this.acquireLock();
 
         try {
-            this.processLightUpdatesForTypeInner(lightType, queue);
+            if (queue.size() > this.peakQueueDepth[lightType.ordinal()]) {
+                this.peakQueueDepth[lightType.ordinal()] = queue.size();
+            }
+            if (this.parallelPropagator != null && queue.size() >= ParallelLightPropagator.MIN_PARALLEL_UPDATES) {
+                this.profiler.startSection("lighting");
+                // leaves in the queue whatever it couldn't process in parallel
+                this.parallelPropagator.process(lightType, queue);
+                this.profiler.endSection();
+            }
+            if (!queue.isEmpty()) {
+                this.processLightUpdatesForTypeInner(lightType, queue);
+            }
         } finally {
             this.updating = false;
+            // all queues are empty now, let other worlds use the segments until there is more to do
+            this.pool.releaseIdle();
             this.releaseLock();
         }
     }
 
+    /**
+     * @param lightType light type
+     * @return the largest number of light updates of the given type that have been scheduled at once
+     */
+    public int getPeakQueueDepth(final EnumSkyBlock lightType) {
+        return this.peakQueueDepth[lightType.ordinal()];
+    }
+
+    /**
+     * Prepares this shard worker engine to process updates within the given shard, see {@link ParallelLightPropagator}
+     */
+    void beginShard(final int shardX, final int shardY, final int shardZ) {
+        assert this.shardWorker;
+        this.shardX = shardX;
+        this.shardY = shardY;
+        this.shardZ = shardZ;
+        this.shardHandoffs.clear();
+        this.shardLightChanges.clear();
+    }
+
+    /**
+     * Schedules a light update in the current shard of this shard worker engine, without processing the updates when there are too many
+     */
+    void scheduleShardLightUpdate(final EnumSkyBlock lightType, final int x, final int y, final int z) {
+        this.queuedLightUpdates[lightType.ordinal()].add(x, y, z, 0);
+    }
+
+    /**
+     * Processes all updates scheduled in the current shard of this shard worker engine. Afterwards, {@link #getShardHandoffs()} and
+     * {@link #getShardLightChanges()} contain the results.
+     */
+    void processShard(final EnumSkyBlock lightType) {
+        assert this.shardWorker;
+        try {
+            this.processLightUpdatesForTypeInner(lightType, this.queuedLightUpdates[lightType.ordinal()]);
+        } finally {
+            this.updating = false;
+        }
+    }
+
+    /**
+     * @return positions which need to be checked again because light would spread between them and another shard, as x, y, z triples
+     */
+    IntArrayList getShardHandoffs() {
+        return this.shardHandoffs;
+    }
+
+    /**
+     * @return positions where light changed in the current shard, as x, y, z triples
+     */
+    IntArrayList getShardLightChanges() {
+        return this.shardLightChanges;
+    }
+
+    /**
+     * Returns the queue segments cached by this shard worker engine to the shared pool once it has nothing more to process
+     */
+    void releaseIdleQueueSegments() {
+        assert this.shardWorker;
+        this.pool.releaseIdle();
+    }
+
+    private boolean isInShard(final int x, final int y, final int z) {
+        return ParallelLightPropagator.blockToShard(x) == this.shardX
+                && ParallelLightPropagator.blockToShard(y) == this.shardY
+                && ParallelLightPropagator.blockToShard(z) == this.shardZ;
+    }
+
+    /**
+     * Instead of changing light in another shard, which may be processed by another thread at the same time, both the position in the other
+     * shard and the current position are checked again after this round. The check at the current position makes sure it gets light from
+     * the other shard if it should.
+     */
+    private void handOffFromCursor(final int x, final int y, final int z) {
+        this.shardHandoffs.add(x);
+        this.shardHandoffs.add(y);
+        this.shardHandoffs.add(z);
+        this.shardHandoffs.add(this.curDataX);
+        this.shardHandoffs.add(this.curDataY);
+        this.shardHandoffs.add(this.curDataZ);
+    }
+
     private void acquireLock() {
         if (!this.lock.tryLock()) {
             // If we cannot lock, something has gone wrong... Only one thread should ever acquire the lock.
@@ -343,6 +464,12 @@ public class PhosphorLightEngine {
                             continue;
                         }
 
+                        if (this.shardWorker && !this.isInShard(info.blockX, info.blockY, info.blockZ)) {
+                            //light in another shard may still be darkened later, so it can't illuminate us yet - check both again next round
+                            this.handOffFromCursor(info.blockX, info.blockY, info.blockZ);
+                            continue;
+                        }
+
                         final int nLight = info.light;
 
                         if (nLight == 0) {
@@ -376,7 +503,13 @@ public class PhosphorLightEngine {
                 final int oldLight = this.getCursorCachedLight(lightType);
 
                 if (oldLight == curLight) { //only process this if nothing else has happened at this position since scheduling
-                    this.world.notifyLightSet(this.curPos);
+                    if (this.shardWorker) {
+                        this.shardLightChanges.add(this.curDataX);
+                        this.shardLightChanges.add(this.curDataY);
+                        this.shardLightChanges.add(this.curDataZ);
+                    } else {
+                        this.world.notifyLightSet(this.curPos);
+                    }
 
                     if (curLight > 1) {
                         this.spreadLightFromCursor(curLight, lightType);
@@ -535,9 +668,13 @@ public class PhosphorLightEngine {
     private void enqueueBrightening(final BlockPos pos,
             final int posX, final int posY, final int posZ, final int newLight,
             final ICube cube, final EnumSkyBlock lightType) {
+        if (this.shardWorker && !this.isInShard(posX, posY, posZ)) {
+            this.handOffFromCursor(posX, posY, posZ);
+            return;
+        }
         this.queuedBrightenings[newLight].add(posX, posY, posZ, newLight);
 
-        cube.setLightFor(lightType, pos, newLight);
+        this.setLightFor(cube, lightType, pos, newLight);
     }
 
     /**
@@ -546,9 +683,37 @@ public class PhosphorLightEngine {
     private void enqueueDarkening(final BlockPos pos,
             final int posX, final int posY, final int posZ, final int oldLight,
             final ICube cube, final EnumSkyBlock lightType) {
+        if (this.shardWorker && !this.isInShard(posX, posY, posZ)) {
+            this.handOffFromCursor(posX, posY, posZ);
+            return;
+        }
         this.queuedDarkenings[oldLight].add(posX, posY, posZ, 0);
 
-        cube.setLightFor(lightType, pos, 0);
+        this.setLightFor(cube, lightType, pos, 0);
+    }
+
+    private void setLightFor(final ICube cube, final EnumSkyBlock lightType, final BlockPos pos, final int light) {
+        if (!this.shardWorker) {
+            cube.setLightFor(lightType, pos, light);
+            return;
+        }
+        // setting light through the column isn't thread-safe, and other cubes of the column may be in shards processed at the same time
+        ExtendedBlockStorage storage = cube.getStorage();
+        if (storage == Chunk.NULL_BLOCK_STORAGE) {
+            storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(cube.getY()), this.world.provider.hasSkyLight());
+            ((Cube) cube).setStorage(storage);
+        }
+        int localX = blockToLocal(pos.getX());
+        int localY = blockToLocal(pos.getY());
+        int localZ = blockToLocal(pos.getZ());
+        if (lightType == EnumSkyBlock.SKY) {
+            if (this.world.provider.hasSkyLight()) {
+                storage.setSkyLight(localX, localY, localZ, light);
+            }
+        } else {
+            storage.setBlockLight(localX, localY, localZ, light);
+        }
+        ((Cube) cube).markDirty();
     }
 
     private static int ITEMS_PROCESSED = 0, CHUNKS_FETCHED = 0;
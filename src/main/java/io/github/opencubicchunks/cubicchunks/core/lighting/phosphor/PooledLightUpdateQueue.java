@@ -26,13 +26,16 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.lighting.phosphor;
 
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+
 import java.util.ArrayDeque;
 import java.util.Deque;
 
 //Implement own queue with pooled segments to reduce allocation costs and reduce idle memory footprint
+//Segments are cached per engine while it's busy, and in a pool shared between all worlds while it's idle
 public class PooledLightUpdateQueue {
 
-    private static final int CACHED_QUEUE_SEGMENTS_COUNT = 1 << 12; // 4096
+    private static final int LOCAL_CACHED_QUEUE_SEGMENTS_COUNT = 1 << 6; // 64
     private static final int QUEUE_SEGMENT_SIZE = 1 << 10; // 1024
 
     private final Pool pool;
@@ -80,7 +83,7 @@ public class PooledLightUpdateQueue {
         }
 
         if (this.last.index == QUEUE_SEGMENT_SIZE) {
-            Segment ret = this.last.next = this.last.pool.acquire();
+            Segment ret = this.last.next = this.pool.acquire();
             int i = ret.index++ << 2;
             ret.dataArray[i] = x;
             ret.dataArray[i | 1] = y;
@@ -112,7 +115,8 @@ public class PooledLightUpdateQueue {
 
         while (segment != null) {
             Segment next = segment.next;
-            segment.release();
+            segment.reset();
+            this.pool.release(segment);
             segment = next;
         }
 
@@ -178,41 +182,74 @@ public class PooledLightUpdateQueue {
         }
     }
 
+    /**
+     * Segments cached for a single light engine. Not thread-safe. Only a few segments are kept locally, the rest go to the {@link SharedPool},
+     * and {@link #releaseIdle()} returns all of them there once the engine has nothing left to do.
+     */
     public static class Pool {
 
         private final Deque<Segment> segmentPool = new ArrayDeque<>();
 
         private Segment acquire() {
             if (this.segmentPool.isEmpty()) {
-                return new Segment(this);
+                return SharedPool.acquire();
             }
 
             return this.segmentPool.pop();
         }
 
         private void release(Segment segment) {
-            if (this.segmentPool.size() < CACHED_QUEUE_SEGMENTS_COUNT) {
+            if (this.segmentPool.size() < LOCAL_CACHED_QUEUE_SEGMENTS_COUNT) {
                 this.segmentPool.push(segment);
+            } else {
+                SharedPool.release(segment);
+            }
+        }
+
+        /**
+         * Returns all locally cached segments to the shared pool. Segments still used by a queue are returned when the queue is cleared.
+         */
+        public void releaseIdle() {
+            while (!this.segmentPool.isEmpty()) {
+                SharedPool.release(this.segmentPool.pop());
             }
         }
     }
 
+    /**
+     * Segments shared by the light engines of all worlds, so that memory used by one big light update can be reused by any world afterwards
+     * instead of staying reserved by the world it happened in. Holds at most {@link CubicChunksConfig#lightUpdateQueuePoolSize} megabytes of
+     * segments, anything above that is left to the garbage collector.
+     */
+    private static final class SharedPool {
+
+        private static final Deque<Segment> segments = new ArrayDeque<>();
+
+        private static synchronized Segment acquire() {
+            Segment segment = segments.poll();
+            return segment == null ? new Segment() : segment;
+        }
+
+        private static synchronized void release(Segment segment) {
+            if (segments.size() < maxSegments()) {
+                segments.push(segment);
+            }
+        }
+
+        private static int maxSegments() {
+            return (int) ((CubicChunksConfig.lightUpdateQueuePoolSize * 1024L * 1024L) / (QUEUE_SEGMENT_SIZE * 4 * Integer.BYTES));
+        }
+    }
+
     private static class Segment {
 
         private final int[] dataArray = new int[QUEUE_SEGMENT_SIZE << 2];
         private int index = 0;
         private Segment next;
-        private final Pool pool;
 
-        private Segment(Pool pool) {
-            this.pool = pool;
-        }
-
-        private void release() {
+        private void reset() {
             this.index = 0;
             this.next = null;
-
-            this.pool.release(this);
         }
     }
 
@@ -0,0 +1,109 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2021 OpenCubicChunks
+ *  Copyright (c) 2015-2021 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.tileentity.TileEntity;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Keeps the encoded form of cubes sent to clients, so that a cube sent to many players is encoded only once.
+ * <p>
+ * Cubes are encoded separately for each encoding players use, see {@link PacketCubeEncoding}. An entry is valid only for the world tick
+ * it was created in. Blocks and light can be changed through too many paths to track changes to
+ * them reliably, but nothing modifies the world while cubes are being sent, so all players cubes are sent to during one tick share the
+ * same encoded data. Must only be used from the server thread.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class EncodedCubeCache {
+
+    private final Map<Cube, EncodedCube> cache = new IdentityHashMap<>();
+
+    EncodedCube get(Cube cube) {
+        long tick = cube.getWorld().getTotalWorldTime();
+        EncodedCube encoded = cache.get(cube);
+        if (encoded != null && encoded.tick == tick) {
+            return encoded;
+        }
+        encoded = new EncodedCube(cube, tick);
+        cache.put(cube, encoded);
+        return encoded;
+    }
+
+    /**
+     * Drops all cached data. Should be called after all cubes have been sent for this tick, to not keep the data of cubes longer than needed.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    static final class EncodedCube {
+
+        private final Cube cube;
+        private final long tick;
+        // shared between all packets this cube is sent in, must not be modified
+        private final byte[][] dataByEncoding = new byte[WorldEncoder.LATEST_ENCODING + 1][];
+        private final List<NBTTagCompound> tileEntityTags;
+
+        EncodedCube(Cube cube, long tick) {
+            this.cube = cube;
+            this.tick = tick;
+            this.tileEntityTags = Collections.unmodifiableList(
+                    cube.getTileEntityMap().values().stream().map(TileEntity::getUpdateTag).collect(Collectors.toList()));
+        }
+
+        /**
+         * Returns the cube encoded with the given encoding, encoding it only the first time each encoding is requested.
+         */
+        byte[] getData(int encoding) {
+            byte[] data = dataByEncoding[encoding];
+            if (data == null) {
+                ByteBuf buf = Unpooled.buffer(WorldEncoder.getEncodedSize(cube));
+                WorldEncoder.encodeCube(new PacketBuffer(buf), cube, encoding);
+                data = new byte[buf.readableBytes()];
+                buf.readBytes(data);
+                dataByEncoding[encoding] = data;
+            }
+            return data;
+        }
+
+        List<NBTTagCompound> getTileEntityTags() {
+            return tileEntityTags;
+        }
+    }
+}
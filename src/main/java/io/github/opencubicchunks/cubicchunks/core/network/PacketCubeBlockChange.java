@@ -24,8 +24,8 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.network;
 
-import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToLocal;
 import static net.minecraftforge.fml.common.network.ByteBufUtils.readVarInt;
+import static net.minecraftforge.fml.common.network.ByteBufUtils.writeVarInt;
 
 import gnu.trove.TShortCollection;
 import gnu.trove.iterator.TIntIterator;
@@ -48,84 +48,176 @@ import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
-import net.minecraftforge.fml.common.network.ByteBufUtils;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 
+import java.util.Arrays;
+import java.util.List;
+
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
+/**
+ * Block changes in any number of cubes, so that all changes a player needs to know about in one tick can be sent in one packet.
+ * Changed blocks are sent as runs of consecutive local addresses with the same block state, which is compact for explosions and
+ * other changes that set many blocks next to each other to the same state.
+ * <p>
+ * This layout can't be read by older versions, which are rejected by the network protocol version check, see
+ * {@code CubicChunks.NETWORK_PROTOCOL_VERSION}.
+ */
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 public class PacketCubeBlockChange implements IMessage {
 
-    int[] heightValues;
-    CubePos cubePos;
-    short[] localAddresses;
-    IBlockState[] blockStates;
+    CubeChanges[] cubeChanges;
 
     public PacketCubeBlockChange() {
     }
 
-    public PacketCubeBlockChange(Cube cube, TShortCollection localAddresses) {
-        this.cubePos = cube.getCoords();
-        this.localAddresses = localAddresses.toArray();
-        this.blockStates = new IBlockState[localAddresses.size()];
-        int i = localAddresses.size() - 1;
-        TIntSet xzAddresses = new TIntHashSet();
-        for (; i >= 0; i--) {
-            int localAddress = this.localAddresses[i];
-            int x = AddressTools.getLocalX(localAddress);
-            int y = AddressTools.getLocalY(localAddress);
-            int z = AddressTools.getLocalZ(localAddress);
-            this.blockStates[i] = cube.getBlockState(x, y, z);
-            xzAddresses.add(AddressTools.getLocalAddress(x, z));
-        }
-        this.heightValues = new int[xzAddresses.size()];
-        i = 0;
-        TIntIterator it = xzAddresses.iterator();
-        while (it.hasNext()) {
-            int v = it.next();
-            int height = ((IColumnInternal) cube.getColumn()).getTopYWithStaging(blockToLocal(v), blockToLocal(v));
-            v |= height << 8;
-            heightValues[i] = v;
-            i++;
-        }
+    public PacketCubeBlockChange(List<CubeChanges> cubeChanges) {
+        this.cubeChanges = cubeChanges.toArray(new CubeChanges[0]);
     }
 
     @SuppressWarnings("deprecation") // Forge thinks we are trying to register a block or something :P
     @Override
     public void fromBytes(ByteBuf in) {
-        this.cubePos = new CubePos(in.readInt(), in.readInt(), in.readInt());
-        short numBlocks = in.readShort();
-        localAddresses = new short[numBlocks];
-        blockStates = new IBlockState[numBlocks];
-
-        for (int i = 0; i < numBlocks; i++) {
-            localAddresses[i] = in.readShort();
-            blockStates[i] = Block.BLOCK_STATE_IDS.getByValue(readVarInt(in, 4));
-        }
-        int numHmapChanges = in.readUnsignedByte();
-        heightValues = new int[numHmapChanges];
-        for (int i = 0; i < numHmapChanges; i++) {
-            heightValues[i] = in.readInt();
+        this.cubeChanges = new CubeChanges[readVarInt(in, 5)];
+        int x = 0, y = 0, z = 0;
+        for (int i = 0; i < cubeChanges.length; i++) {
+            // cubes changed in the same tick are usually close to each other, so positions are sent relative to the previous one
+            x += readSignedVarInt(in);
+            y += readSignedVarInt(in);
+            z += readSignedVarInt(in);
+
+            int runCount = readVarInt(in, 3);
+            short[] runStarts = new short[runCount];
+            short[] runLengths = new short[runCount];
+            IBlockState[] runStates = new IBlockState[runCount];
+            int address = 0;
+            for (int j = 0; j < runCount; j++) {
+                address += readVarInt(in, 2);
+                runStarts[j] = (short) address;
+                runLengths[j] = (short) readVarInt(in, 2);
+                runStates[j] = Block.BLOCK_STATE_IDS.getByValue(readVarInt(in, 4));
+                address += runLengths[j];
+            }
+
+            int[] heightValues = new int[readVarInt(in, 2)];
+            for (int j = 0; j < heightValues.length; j++) {
+                heightValues[j] = in.readInt();
+            }
+            cubeChanges[i] = new CubeChanges(new CubePos(x, y, z), runStarts, runLengths, runStates, heightValues);
         }
     }
 
     @SuppressWarnings("deprecation")
     @Override
     public void toBytes(ByteBuf out) {
-        out.writeInt(cubePos.getX());
-        out.writeInt(cubePos.getY());
-        out.writeInt(cubePos.getZ());
-        out.writeShort(localAddresses.length);
-        for (int i = 0; i < localAddresses.length; i++) {
-            out.writeShort(localAddresses[i]);
-            ByteBufUtils.writeVarInt(out, Block.BLOCK_STATE_IDS.get(blockStates[i]), 4);
+        writeVarInt(out, cubeChanges.length, 5);
+        int x = 0, y = 0, z = 0;
+        for (CubeChanges changes : cubeChanges) {
+            writeSignedVarInt(out, changes.cubePos.getX() - x);
+            writeSignedVarInt(out, changes.cubePos.getY() - y);
+            writeSignedVarInt(out, changes.cubePos.getZ() - z);
+            x = changes.cubePos.getX();
+            y = changes.cubePos.getY();
+            z = changes.cubePos.getZ();
+
+            writeVarInt(out, changes.runStarts.length, 3);
+            int address = 0;
+            for (int j = 0; j < changes.runStarts.length; j++) {
+                writeVarInt(out, changes.runStarts[j] - address, 2);
+                writeVarInt(out, changes.runLengths[j], 2);
+                writeVarInt(out, Block.BLOCK_STATE_IDS.get(changes.runStates[j]), 4);
+                address = changes.runStarts[j] + changes.runLengths[j];
+            }
+
+            writeVarInt(out, changes.heightValues.length, 2);
+            for (int v : changes.heightValues) {
+                out.writeInt(v);
+            }
         }
-        out.writeByte(heightValues.length);
-        for (int v : heightValues) {
-            out.writeInt(v);
+    }
+
+    private static int readSignedVarInt(ByteBuf in) {
+        int zigZag = readVarInt(in, 5);
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+
+    private static void writeSignedVarInt(ByteBuf out, int value) {
+        writeVarInt(out, (value << 1) ^ (value >> 31), 5);
+    }
+
+    /**
+     * The changed blocks of one cube. Created once for each cube with changes, and shared between the packets of all players watching it.
+     */
+    public static final class CubeChanges {
+
+        final CubePos cubePos;
+        // runs of consecutive local addresses set to the same block state, sorted by address
+        final short[] runStarts;
+        final short[] runLengths;
+        final IBlockState[] runStates;
+        final int[] heightValues;
+
+        public CubeChanges(Cube cube, TShortCollection localAddresses) {
+            this.cubePos = cube.getCoords();
+            short[] addresses = localAddresses.toArray();
+            Arrays.sort(addresses);
+
+            short[] runStarts = new short[addresses.length];
+            short[] runLengths = new short[addresses.length];
+            IBlockState[] runStates = new IBlockState[addresses.length];
+            int runCount = 0;
+            TIntSet xzAddresses = new TIntHashSet();
+            for (int i = 0; i < addresses.length; i++) {
+                if (i > 0 && addresses[i] == addresses[i - 1]) {
+                    continue; // the same block changed more than once
+                }
+                int localAddress = addresses[i];
+                int x = AddressTools.getLocalX(localAddress);
+                int y = AddressTools.getLocalY(localAddress);
+                int z = AddressTools.getLocalZ(localAddress);
+                IBlockState state = cube.getBlockState(x, y, z);
+                xzAddresses.add(AddressTools.getLocalAddress(x, z));
+                if (runCount > 0 && runStates[runCount - 1] == state && runStarts[runCount - 1] + runLengths[runCount - 1] == localAddress) {
+                    runLengths[runCount - 1]++;
+                } else {
+                    runStarts[runCount] = (short) localAddress;
+                    runLengths[runCount] = 1;
+                    runStates[runCount] = state;
+                    runCount++;
+                }
+            }
+            this.runStarts = Arrays.copyOf(runStarts, runCount);
+            this.runLengths = Arrays.copyOf(runLengths, runCount);
+            this.runStates = Arrays.copyOf(runStates, runCount);
+
+            this.heightValues = new int[xzAddresses.size()];
+            int i = 0;
+            TIntIterator it = xzAddresses.iterator();
+            while (it.hasNext()) {
+                int v = it.next();
+                int height = ((IColumnInternal) cube.getColumn()).getTopYWithStaging(AddressTools.getLocalX(v), AddressTools.getLocalZ(v));
+                v |= height << 8;
+                heightValues[i] = v;
+                i++;
+            }
+        }
+
+        private CubeChanges(CubePos cubePos, short[] runStarts, short[] runLengths, IBlockState[] runStates, int[] heightValues) {
+            this.cubePos = cubePos;
+            this.runStarts = runStarts;
+            this.runLengths = runLengths;
+            this.runStates = runStates;
+            this.heightValues = heightValues;
+        }
+
+        /**
+         * @return the number of runs of blocks set to the same state, which is roughly proportional to the encoded size
+         */
+        public int getRunCount() {
+            return runStarts.length;
         }
     }
 
@@ -136,28 +228,32 @@ public class PacketCubeBlockChange implements IMessage {
             WorldClient worldClient = (WorldClient) world;
             CubeProviderClient cubeCache = (CubeProviderClient) worldClient.getChunkProvider();
 
-            // get the cube
-            Cube cube = cubeCache.getCube(packet.cubePos);
-            if (cube instanceof BlankCube) {
-                CubicChunks.LOGGER.error("Ignored block update to blank cube {}", packet.cubePos);
-                return;
-            }
+            for (CubeChanges changes : packet.cubeChanges) {
+                // get the cube
+                Cube cube = cubeCache.getCube(changes.cubePos);
+                if (cube instanceof BlankCube) {
+                    CubicChunks.LOGGER.error("Ignored block update to blank cube {}", changes.cubePos);
+                    continue;
+                }
 
-            ClientHeightMap index = (ClientHeightMap) cube.getColumn().getOpacityIndex();
-            for (int hmapUpdate : packet.heightValues) {
-                int x = hmapUpdate & 0xF;
-                int z = (hmapUpdate >> 4) & 0xF;
-                //height is signed, so don't use unsigned shift
-                int height = hmapUpdate >> 8;
-                index.setHeight(x, z, height);
-            }
-            // apply the update
-            for (int i = 0; i < packet.localAddresses.length; i++) {
-                BlockPos pos = cube.localAddressToBlockPos(packet.localAddresses[i]);
-                worldClient.invalidateBlockReceiveRegion(pos.getX(), pos.getY(), pos.getZ(), pos.getX(), pos.getY(), pos.getZ());
-                worldClient.setBlockState(pos, packet.blockStates[i], 3);
+                ClientHeightMap index = (ClientHeightMap) cube.getColumn().getOpacityIndex();
+                for (int hmapUpdate : changes.heightValues) {
+                    int x = hmapUpdate & 0xF;
+                    int z = (hmapUpdate >> 4) & 0xF;
+                    //height is signed, so don't use unsigned shift
+                    int height = hmapUpdate >> 8;
+                    index.setHeight(x, z, height);
+                }
+                // apply the update
+                for (int i = 0; i < changes.runStarts.length; i++) {
+                    for (int address = changes.runStarts[i]; address < changes.runStarts[i] + changes.runLengths[i]; address++) {
+                        BlockPos pos = cube.localAddressToBlockPos(address);
+                        worldClient.invalidateBlockReceiveRegion(pos.getX(), pos.getY(), pos.getZ(), pos.getX(), pos.getY(), pos.getZ());
+                        worldClient.setBlockState(pos, changes.runStates[i], 3);
+                    }
+                }
+                cube.getTileEntityMap().values().forEach(TileEntity::updateContainingBlockInfo);
             }
-            cube.getTileEntityMap().values().forEach(TileEntity::updateContainingBlockInfo);
         }
     }
 }
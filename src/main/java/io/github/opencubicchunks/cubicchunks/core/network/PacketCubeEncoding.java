@@ -0,0 +1,88 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2021 OpenCubicChunks
+ *  Copyright (c) 2015-2021 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.network.NetHandlerPlayServer;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Sent by the client to tell the server the newest cube encoding it can decode. Until the server receives it, cubes are sent using
+ * {@link WorldEncoder#ENCODING_LEGACY}. The encoding byte and length prefixes of PacketCubes are always written, so clients older than
+ * this packet can't decode cubes at all and aren't allowed to connect (see {@code CubicChunks.NETWORK_PROTOCOL_VERSION}).
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class PacketCubeEncoding implements IMessage {
+
+    // stored on the connection, so that it's kept when the player changes dimension or respawns
+    private static final AttributeKey<Integer> CUBE_ENCODING = AttributeKey.valueOf("cubicchunks:cube_encoding");
+
+    private int encoding;
+
+    public PacketCubeEncoding() {
+        this.encoding = WorldEncoder.LATEST_ENCODING;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        this.encoding = buf.readUnsignedByte();
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeByte(this.encoding);
+    }
+
+    /**
+     * Returns the encoding to use for cubes sent to the given player, which is the newest encoding both sides support.
+     */
+    public static int getCubeEncoding(EntityPlayerMP player) {
+        NetHandlerPlayServer connection = player.connection;
+        if (connection == null || connection.netManager == null) {
+            return WorldEncoder.ENCODING_LEGACY;
+        }
+        Channel channel = connection.netManager.channel();
+        Integer encoding = channel.attr(CUBE_ENCODING).get();
+        return encoding == null ? WorldEncoder.ENCODING_LEGACY : encoding;
+    }
+
+    public static class Handler extends AbstractServerMessageHandler<PacketCubeEncoding> {
+
+        @Override
+        public void handleServerMessage(EntityPlayer player, PacketCubeEncoding message, MessageContext ctx) {
+            Channel channel = ((EntityPlayerMP) player).connection.netManager.channel();
+            channel.attr(CUBE_ENCODING).set(Math.min(message.encoding, WorldEncoder.LATEST_ENCODING));
+        }
+    }
+}
@@ -31,6 +31,7 @@ import io.github.opencubicchunks.cubicchunks.api.util.Bits;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.core.client.CubeProviderClient;
 import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
+import io.github.opencubicchunks.cubicchunks.core.util.UniformNibbleArrays;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import io.netty.buffer.ByteBuf;
 import mcp.MethodsReturnNonnullByDefault;
@@ -38,7 +39,6 @@ import net.minecraft.client.multiplayer.WorldClient;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
-import net.minecraft.world.chunk.NibbleArray;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.fml.common.network.ByteBufUtils;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
@@ -157,7 +157,7 @@ public class PacketCubeSkyLightUpdates implements IMessage {
             }
             assert storage != null;
             if (message.isFullRelight()) {
-                storage.setSkyLight(new NibbleArray(message.getData()));
+                storage.setSkyLight(UniformNibbleArrays.of(message.getData()));
             } else {
                 for (int i = 0; i < message.updateCount(); i++) {
                     int packed1 = message.getData()[i * 2] & 0xFF;
@@ -45,52 +45,64 @@ import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 public class PacketCubes implements IMessage {
 
+    private int encoding;
     private CubePos[] cubePos;
-    private byte[] data;
+    // encoded data of each cube, on the server these arrays may be shared with other packets
+    private byte[][] data;
     private List<List<NBTTagCompound>> tileEntityTags;
 
     public PacketCubes() {
     }
 
     public PacketCubes(List<Cube> cubes) {
+        this(cubes, null, WorldEncoder.ENCODING_LEGACY);
+    }
+
+    /**
+     * @param cache cache to get already encoded cubes from, if null all cubes are encoded for this packet only
+     * @param encoding the encoding to use, see {@link PacketCubeEncoding#getCubeEncoding}
+     */
+    public PacketCubes(List<Cube> cubes, @Nullable EncodedCubeCache cache, int encoding) {
         cubes.sort(Comparator.<Cube>comparingInt(c -> c.getCoords().getY())
                 .thenComparingInt(c -> c.getCoords().getX())
                 .thenComparingInt(c -> c.getCoords().getZ()));
+        this.encoding = encoding;
         this.cubePos = new CubePos[cubes.size()];
+        this.data = new byte[cubes.size()][];
+        this.tileEntityTags = new ArrayList<>();
         for (int i = 0; i < cubes.size(); i++) {
-            cubePos[i] = cubes.get(i).getCoords();
+            Cube cube = cubes.get(i);
+            EncodedCubeCache.EncodedCube encoded = cache == null
+                    ? new EncodedCubeCache.EncodedCube(cube, cube.getWorld().getTotalWorldTime())
+                    : cache.get(cube);
+            cubePos[i] = cube.getCoords();
+            data[i] = encoded.getData(encoding);
+            tileEntityTags.add(encoded.getTileEntityTags());
         }
-        this.data = new byte[WorldEncoder.getEncodedSize(cubes)];
-        PacketBuffer out = new PacketBuffer(WorldEncoder.createByteBufForWrite(this.data));
-
-        WorldEncoder.encodeCubes(out, cubes);
-
-        this.tileEntityTags = new ArrayList<>();
-
-        cubes.forEach(cube ->
-                tileEntityTags.add(cube.getTileEntityMap().values().stream().map(TileEntity::getUpdateTag).collect(Collectors.toList()))
-        );
     }
 
     @Override
     public void fromBytes(ByteBuf buf) {
+        this.encoding = buf.readUnsignedByte();
         int cubeCount = buf.readUnsignedShort();
         cubePos = new CubePos[cubeCount];
         for (int i = 0; i < this.cubePos.length; i++) {
             cubePos[i] = PacketUtils.readCubePos(buf);
         }
 
-        this.data = new byte[buf.readInt()];
-        buf.readBytes(this.data);
+        this.data = new byte[cubeCount][];
+        for (int i = 0; i < cubeCount; i++) {
+            this.data[i] = new byte[buf.readInt()];
+            buf.readBytes(this.data[i]);
+        }
 
         this.tileEntityTags = new ArrayList<>();
         for (int i = 0; i < cubeCount; i++) {
@@ -105,13 +117,16 @@ public class PacketCubes implements IMessage {
 
     @Override
     public void toBytes(ByteBuf buf) {
+        buf.writeByte(encoding);
         buf.writeShort(cubePos.length);
         for (CubePos pos : cubePos) {
             PacketUtils.write(buf, pos);
         }
 
-        buf.writeInt(this.data.length);
-        buf.writeBytes(this.data);
+        for (byte[] cubeData : this.data) {
+            buf.writeInt(cubeData.length);
+            buf.writeBytes(cubeData);
+        }
 
         this.tileEntityTags.forEach(tags -> {
             buf.writeInt(tags.size());
@@ -119,11 +134,15 @@ public class PacketCubes implements IMessage {
         });
     }
 
+    int getEncoding() {
+        return encoding;
+    }
+
     CubePos[] getCubePos() {
         return cubePos;
     }
 
-    byte[] getData() {
+    byte[][] getData() {
         return data;
     }
 
@@ -139,23 +158,20 @@ public class PacketCubes implements IMessage {
             CubeProviderClient cubeCache = (CubeProviderClient) worldClient.getChunkProvider();
 
             CubePos[] cubePos = message.getCubePos();
-            List<Cube> cubes = new ArrayList<>();
-            for (CubePos pos : cubePos) {
+            byte[][] data = message.getData();
+            for (int i = 0; i < cubePos.length; i++) {
+                CubePos pos = cubePos[i];
                 Cube cube = cubeCache.loadCube(pos); // new cube
                 //isEmpty actually checks if the column is a BlankColumn
                 if (cube == null) {
                     CubicChunks.LOGGER.error("Out of order cube received! No column for cube at {} exists!", pos);
+                    continue;
                 }
-                cubes.add(cube);
+                ByteBuf buf = WorldEncoder.createByteBufForRead(data[i]);
+                WorldEncoder.decodeCube(new PacketBuffer(buf), cube, message.getEncoding());
+                cube.markForRenderUpdate();
             }
 
-
-            byte[] data = message.getData();
-            ByteBuf buf = WorldEncoder.createByteBufForRead(data);
-            WorldEncoder.decodeCube(new PacketBuffer(buf), cubes);
-
-            cubes.stream().filter(Objects::nonNull).forEach(Cube::markForRenderUpdate);
-
             message.getTileEntityTags().forEach(tags -> tags.forEach(tag -> {
                 int blockX = tag.getInteger("x");
                 int blockY = tag.getInteger("y");
@@ -117,6 +117,8 @@ public class PacketCubicWorldData implements IMessage {
 
         @Nullable @Override
         public void handleClientMessage(World world, EntityPlayer player, PacketCubicWorldData message, MessageContext ctx) {
+            // sent on every login and dimension change, so the server always knows how to encode cubes sent to this client
+            PacketDispatcher.sendToServer(new PacketCubeEncoding());
             // initialize only if sending packet about cubic world, but not when already initialized
             if (message.isCubicWorld() && !((ICubicWorld) world).isCubicWorld()) {
                 ((ICubicWorldInternal.Client) world).initCubicWorldClient(
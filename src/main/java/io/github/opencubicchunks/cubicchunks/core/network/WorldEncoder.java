@@ -28,78 +28,106 @@ import io.github.opencubicchunks.cubicchunks.api.util.Coords;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.lighting.ILightingManager;
 import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
+import io.github.opencubicchunks.cubicchunks.core.util.UniformNibbleArrays;
 import io.github.opencubicchunks.cubicchunks.core.world.ClientHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.IColumnInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
 import net.minecraft.network.PacketBuffer;
+import net.minecraft.world.chunk.BlockStateContainer;
 import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.NibbleArray;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
-import java.util.Collection;
-import java.util.List;
-import java.util.Objects;
-
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 class WorldEncoder {
 
-    static void encodeCubes(PacketBuffer out, Collection<Cube> cubes) {
-        // write first all the flags, then all the block data, then all the light data etc for better compression
+    /**
+     * The original encoding, with full block, light and heightmap data for each cube
+     */
+    static final int ENCODING_LEGACY = 0;
+    /**
+     * Like {@link #ENCODING_LEGACY}, but with shortcuts for cubes made of a single block state and uniform light, no light data for cubes
+     * made only of opaque blocks and delta encoded heightmaps
+     */
+    static final int ENCODING_COMPACT = 1;
+    static final int LATEST_ENCODING = ENCODING_COMPACT;
+
+    private static final int FLAG_EMPTY = 1;
+    private static final int FLAG_STORAGE = 2;
+    private static final int FLAG_BIOMES = 4;
+    // flags below are used only by ENCODING_COMPACT
+    private static final int FLAG_SINGLE_BLOCK_STATE = 8;
+    private static final int FLAG_UNIFORM_BLOCK_LIGHT = 16;
+    private static final int FLAG_UNIFORM_SKY_LIGHT = 32;
+    private static final int FLAG_NO_LIGHT = 64;
+
+    /**
+     * Writes all data of a single cube needed by the client. Each cube is encoded separately so that the result can be reused for all
+     * players the cube is sent to.
+     */
+    static void encodeCube(PacketBuffer out, Cube cube, int encoding) {
+        if (encoding == ENCODING_COMPACT) {
+            encodeCubeCompact(out, cube);
+        } else {
+            encodeCubeLegacy(out, cube);
+        }
+    }
 
+    static void decodeCube(PacketBuffer in, Cube cube, int encoding) {
+        if (encoding == ENCODING_COMPACT) {
+            decodeCubeCompact(in, cube);
+        } else {
+            decodeCubeLegacy(in, cube);
+        }
+    }
+
+    private static void encodeCubeLegacy(PacketBuffer out, Cube cube) {
         // 1. emptiness
-        cubes.forEach(cube -> {
-            byte flags = 0;
-            if(cube.isEmpty())
-                flags |= 1;
-            if(cube.getStorage() != null)
-                flags |= 2;
-            if(cube.getBiomeArray() != null)
-                flags |= 4;
-            out.writeByte(flags);
-        });
+        byte flags = 0;
+        if (cube.isEmpty())
+            flags |= 1;
+        if (cube.getStorage() != null)
+            flags |= 2;
+        if (cube.getBiomeArray() != null)
+            flags |= 4;
+        out.writeByte(flags);
 
         // 2. block IDs and metadata
-        cubes.forEach(cube -> {
-            if (!cube.isEmpty()) {
-                //noinspection ConstantConditions
-                cube.getStorage().getData().write(out);
-            }
-        });
+        if (!cube.isEmpty()) {
+            //noinspection ConstantConditions
+            cube.getStorage().getData().write(out);
+        }
 
         // 3. block light
-        cubes.forEach(cube -> {
-            if (cube.getStorage() != null) {
-                out.writeBytes(cube.getStorage().getBlockLight().getData());
-            }
-        });
+        if (cube.getStorage() != null) {
+            out.writeBytes(cube.getStorage().getBlockLight().getData());
+        }
 
         // 4. sky light
-        cubes.forEach(cube -> {
-            if (cube.getStorage() != null && cube.getWorld().provider.hasSkyLight()) {
-                out.writeBytes(cube.getStorage().getSkyLight().getData());
-            }
-        });
+        if (cube.getStorage() != null && cube.getWorld().provider.hasSkyLight()) {
+            out.writeBytes(cube.getStorage().getSkyLight().getData());
+        }
 
         // 5. heightmap and bottom-block-y. Each non-empty cube has a chance
         // to update this data.
         // trying to keep track of when it changes would be complex, so send
         // it wil all cubes
-        cubes.forEach(cube -> {
-            if (!cube.isEmpty()) {
-                ((IColumnInternal) cube.getColumn()).writeHeightmapDataForClient(out);
-            }
-        });
-        
+        if (!cube.isEmpty()) {
+            ((IColumnInternal) cube.getColumn()).writeHeightmapDataForClient(out);
+        }
+
         // 6. biomes
-        cubes.forEach(cube -> {
-            if (cube.getBiomeArray() != null)
-                out.writeBytes(cube.getBiomeArray());
-        });
+        if (cube.getBiomeArray() != null)
+            out.writeBytes(cube.getBiomeArray());
     }
 
     static void encodeColumn(PacketBuffer out, Chunk column) {
@@ -116,126 +144,261 @@ class WorldEncoder {
         }
     }
 
-    static void decodeCube(PacketBuffer in, List<Cube> cubes) {
-        cubes.stream().filter(Objects::nonNull).forEach(Cube::setClientCube);
+    private static void decodeCubeLegacy(PacketBuffer in, Cube cube) {
+        cube.setClientCube();
 
         // 1. emptiness
-        boolean[] isEmpty = new boolean[cubes.size()];
-        boolean[] hasStorage = new boolean[cubes.size()];
-        boolean[] hasCustomBiomeMap = new boolean[cubes.size()];
-
-        for (int i = 0; i < cubes.size(); i++) {
-            byte flags = in.readByte();
-            isEmpty[i] = (flags & 1) != 0 || cubes.get(i) == null;
-            hasStorage[i] = (flags & 2) != 0 && cubes.get(i) != null;
-            hasCustomBiomeMap[i] = (flags & 4) != 0 && cubes.get(i) != null;
-        }
-
-        for (int i = 0; i < cubes.size(); i++) {
-            if (hasStorage[i]) {
-                Cube cube = cubes.get(i);
-                ExtendedBlockStorage storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(cube.getY()),
-                        cube.getWorld().provider.hasSkyLight());
-                cube.setStorageFromSave(storage);
-            }
+        byte flags = in.readByte();
+        boolean isEmpty = (flags & 1) != 0;
+        boolean hasStorage = (flags & 2) != 0;
+        boolean hasCustomBiomeMap = (flags & 4) != 0;
+
+        if (hasStorage) {
+            ExtendedBlockStorage storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(cube.getY()),
+                    cube.getWorld().provider.hasSkyLight());
+            cube.setStorageFromSave(storage);
         }
 
         // 2. Block IDs and metadata
-        for (int i = 0; i < cubes.size(); i++) {
-            if (!isEmpty[i]) {
-                //noinspection ConstantConditions
-                cubes.get(i).getStorage().getData().read(in);
-            }
+        if (!isEmpty) {
+            //noinspection ConstantConditions
+            cube.getStorage().getData().read(in);
         }
 
         // 3. block light
-        for (int i = 0; i < cubes.size(); i++) {
-            if (hasStorage[i]) {
-                //noinspection ConstantConditions
-                byte[] data = cubes.get(i).getStorage().getBlockLight().getData();
-                in.readBytes(data);
-            }
+        if (hasStorage) {
+            //noinspection ConstantConditions
+            cube.getStorage().setBlockLight(readLight(in, false));
         }
 
         // 4. sky light
-        for (int i = 0; i < cubes.size(); i++) {
-            if (hasStorage[i] && cubes.get(i).getWorld().provider.hasSkyLight()) {
-                //noinspection ConstantConditions
-                byte[] data = cubes.get(i).getStorage().getSkyLight().getData();
-                in.readBytes(data);
-            }
+        if (hasStorage && cube.getWorld().provider.hasSkyLight()) {
+            //noinspection ConstantConditions
+            cube.getStorage().setSkyLight(readLight(in, false));
         }
 
-        int[] oldHeights = new int[Cube.SIZE * Cube.SIZE];
         // 5. heightmaps and after all that - update ref counts
-        for (int i = 0; i < cubes.size(); i++) {
-            if (!isEmpty[i]) {
-                Cube cube = cubes.get(i);
-                ILightingManager lm = ((ICubicWorldInternal) cube.getWorld()).getLightingManager();
-                IColumnInternal column = cube.getColumn();
-                ClientHeightMap coi = (ClientHeightMap) column.getOpacityIndex();
-                for (int dx = 0; dx < Cube.SIZE; dx++) {
-                    for (int dz = 0; dz < Cube.SIZE; dz++) {
-                        oldHeights[AddressTools.getLocalAddress(dx, dz)] = coi.getTopBlockY(dx, dz);
-                    }
+        if (!isEmpty) {
+            IColumnInternal column = cube.getColumn();
+            updateHeightMap(cube, () -> column.loadClientHeightmapData(in));
+        }
+
+        // 6. biomes
+        if (hasCustomBiomeMap) {
+            byte[] blockBiomeArray = new byte[Coords.BIOMES_PER_CUBE];
+            in.readBytes(blockBiomeArray);
+            cube.setBiomeArray(blockBiomeArray);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void encodeCubeCompact(PacketBuffer out, Cube cube) {
+        ExtendedBlockStorage storage = cube.getStorage();
+        boolean hasSkyLight = cube.getWorld().provider.hasSkyLight();
+
+        IBlockState singleState = null;
+        boolean noLight = false;
+        if (!cube.isEmpty()) {
+            //noinspection ConstantConditions
+            BlockStateContainer blocks = storage.getData();
+            singleState = blocks.get(0, 0, 0);
+            // light inside blocks that let no light through is only what they emit, which for most cubes deep underground is nothing
+            noLight = true;
+            for (int i = 0; i < Cube.SIZE * Cube.SIZE * Cube.SIZE && (singleState != null || noLight); i++) {
+                IBlockState state = blocks.get(i & 15, i >> 8 & 15, i >> 4 & 15);
+                if (state != singleState) {
+                    singleState = null;
+                }
+                if (state.getLightOpacity() < 15 || state.getLightValue() != 0) {
+                    noLight = false;
                 }
-                column.loadClientHeightmapData(in);
-                for (int dx = 0; dx < Cube.SIZE; dx++) {
-                    for (int dz = 0; dz < Cube.SIZE; dz++) {
-                        int oldY = oldHeights[AddressTools.getLocalAddress(dx, dz)];
-                        int newY = coi.getTopBlockY(dx, dz);
-                        if (oldY != newY) {
-                            lm.updateLightBetween(cube.getColumn(), dx, oldY, newY, dz);
-                        }
-                    }
+            }
+        }
+        int blockLight = storage == null || noLight ? -1 : UniformNibbleArrays.getUniformValue(storage.getBlockLight());
+        int skyLight = storage == null || noLight || !hasSkyLight ? -1 : UniformNibbleArrays.getUniformValue(storage.getSkyLight());
+
+        // 1. flags
+        int flags = 0;
+        if (cube.isEmpty())
+            flags |= FLAG_EMPTY;
+        if (storage != null)
+            flags |= FLAG_STORAGE;
+        if (cube.getBiomeArray() != null)
+            flags |= FLAG_BIOMES;
+        if (singleState != null)
+            flags |= FLAG_SINGLE_BLOCK_STATE;
+        if (blockLight >= 0)
+            flags |= FLAG_UNIFORM_BLOCK_LIGHT;
+        if (skyLight >= 0)
+            flags |= FLAG_UNIFORM_SKY_LIGHT;
+        if (noLight)
+            flags |= FLAG_NO_LIGHT;
+        out.writeByte(flags);
+
+        // 2. block IDs and metadata
+        if (singleState != null) {
+            out.writeVarInt(Block.BLOCK_STATE_IDS.get(singleState));
+        } else if (!cube.isEmpty()) {
+            //noinspection ConstantConditions
+            storage.getData().write(out);
+        }
+
+        // 3. and 4. light
+        if (storage != null && !noLight) {
+            if (blockLight >= 0) {
+                out.writeByte(blockLight);
+            } else {
+                out.writeBytes(storage.getBlockLight().getData());
+            }
+            if (hasSkyLight) {
+                if (skyLight >= 0) {
+                    out.writeByte(skyLight);
+                } else {
+                    out.writeBytes(storage.getSkyLight().getData());
                 }
-                //noinspection ConstantConditions
-                cube.getStorage().recalculateRefCounts();
             }
         }
-        
+
+        // 5. heightmap, as differences from the previous value which are small for most terrain
+        if (!cube.isEmpty()) {
+            IColumnInternal column = cube.getColumn();
+            int previous = Coords.cubeToMinBlock(cube.getY());
+            for (int i = 0; i < Cube.SIZE * Cube.SIZE; i++) {
+                int height = column.getTopYWithStaging(AddressTools.getLocalX(i), AddressTools.getLocalZ(i));
+                // the difference can overflow, but adding it back when decoding overflows the same way
+                int delta = height - previous;
+                out.writeVarInt((delta << 1) ^ (delta >> 31));
+                previous = height;
+            }
+        }
+
         // 6. biomes
-        for (int i = 0; i < cubes.size(); i++) {
-            if (!hasCustomBiomeMap[i])
-                continue;
-            Cube cube = cubes.get(i);
+        if (cube.getBiomeArray() != null)
+            out.writeBytes(cube.getBiomeArray());
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void decodeCubeCompact(PacketBuffer in, Cube cube) {
+        cube.setClientCube();
+        boolean hasSkyLight = cube.getWorld().provider.hasSkyLight();
+
+        // 1. flags
+        int flags = in.readUnsignedByte();
+        boolean isEmpty = (flags & FLAG_EMPTY) != 0;
+
+        ExtendedBlockStorage storage = null;
+        if ((flags & FLAG_STORAGE) != 0) {
+            storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(cube.getY()), hasSkyLight);
+            cube.setStorageFromSave(storage);
+        }
+
+        // 2. block IDs and metadata
+        if ((flags & FLAG_SINGLE_BLOCK_STATE) != 0) {
+            IBlockState state = Block.BLOCK_STATE_IDS.getByValue(in.readVarInt());
+            //noinspection ConstantConditions
+            BlockStateContainer blocks = storage.getData();
+            if (state != Blocks.AIR.getDefaultState()) {
+                for (int i = 0; i < Cube.SIZE * Cube.SIZE * Cube.SIZE; i++) {
+                    blocks.set(i & 15, i >> 8 & 15, i >> 4 & 15, state);
+                }
+            }
+        } else if (!isEmpty) {
+            //noinspection ConstantConditions
+            storage.getData().read(in);
+        }
+
+        // 3. and 4. light, all 0 without light
+        if (storage != null) {
+            boolean noLight = (flags & FLAG_NO_LIGHT) != 0;
+            storage.setBlockLight(noLight ? UniformNibbleArrays.get(0) : readLight(in, (flags & FLAG_UNIFORM_BLOCK_LIGHT) != 0));
+            if (hasSkyLight) {
+                storage.setSkyLight(noLight ? UniformNibbleArrays.get(0) : readLight(in, (flags & FLAG_UNIFORM_SKY_LIGHT) != 0));
+            }
+        }
+
+        // 5. heightmaps and after all that - update ref counts
+        if (!isEmpty) {
+            int[] heights = new int[Cube.SIZE * Cube.SIZE];
+            int previous = Coords.cubeToMinBlock(cube.getY());
+            for (int i = 0; i < heights.length; i++) {
+                int zigZag = in.readVarInt();
+                previous += (zigZag >>> 1) ^ -(zigZag & 1);
+                heights[i] = previous;
+            }
+            updateHeightMap(cube, () -> ((ClientHeightMap) cube.getColumn().getOpacityIndex()).loadData(heights));
+        }
+
+        // 6. biomes
+        if ((flags & FLAG_BIOMES) != 0) {
             byte[] blockBiomeArray = new byte[Coords.BIOMES_PER_CUBE];
             in.readBytes(blockBiomeArray);
             cube.setBiomeArray(blockBiomeArray);
         }
     }
 
+    private static NibbleArray readLight(PacketBuffer in, boolean uniform) {
+        if (uniform) {
+            return UniformNibbleArrays.get(in.readUnsignedByte() & 0xF);
+        }
+        byte[] data = new byte[Cube.SIZE * Cube.SIZE * Cube.SIZE / 2];
+        in.readBytes(data);
+        return UniformNibbleArrays.of(data);
+    }
+
+    /**
+     * Loads new heightmap data for the column of a cube received from the server, and updates light where the heights changed
+     */
+    private static void updateHeightMap(Cube cube, Runnable loadHeights) {
+        ILightingManager lm = ((ICubicWorldInternal) cube.getWorld()).getLightingManager();
+        IColumnInternal column = cube.getColumn();
+        ClientHeightMap coi = (ClientHeightMap) column.getOpacityIndex();
+        int[] oldHeights = new int[Cube.SIZE * Cube.SIZE];
+        for (int dx = 0; dx < Cube.SIZE; dx++) {
+            for (int dz = 0; dz < Cube.SIZE; dz++) {
+                oldHeights[AddressTools.getLocalAddress(dx, dz)] = coi.getTopBlockY(dx, dz);
+            }
+        }
+        loadHeights.run();
+        for (int dx = 0; dx < Cube.SIZE; dx++) {
+            for (int dz = 0; dz < Cube.SIZE; dz++) {
+                int oldY = oldHeights[AddressTools.getLocalAddress(dx, dz)];
+                int newY = coi.getTopBlockY(dx, dz);
+                if (oldY != newY) {
+                    lm.updateLightBetween(cube.getColumn(), dx, oldY, newY, dz);
+                }
+            }
+        }
+        //noinspection ConstantConditions
+        cube.getStorage().recalculateRefCounts();
+    }
+
     static int getEncodedSize(Chunk column) {
         return column.getBiomeArray().length + Cube.SIZE * Cube.SIZE * Integer.BYTES;
     }
 
-    static int getEncodedSize(Collection<Cube> cubes) {
-        int size = 0;
-
+    static int getEncodedSize(Cube cube) {
         // 1. isEmpty, hasStorage and hasBiomeArray flags packed in one byte
-        size += cubes.size();
+        int size = 1;
 
         // 2. block IDs and metadata
-        for (Cube cube : cubes) {
-            if (!cube.isEmpty()) {
-                //noinspection ConstantConditions
-                size += cube.getStorage().getData().getSerializedSize();
-            }
-            if (cube.getStorage() != null) {
-                size += cube.getStorage().getBlockLight().getData().length;
-                if (cube.getWorld().provider.hasSkyLight()) {
-                    size += cube.getStorage().getSkyLight().getData().length;
-                }
+        if (!cube.isEmpty()) {
+            //noinspection ConstantConditions
+            size += cube.getStorage().getData().getSerializedSize();
+        }
+        // 3. and 4. light
+        if (cube.getStorage() != null) {
+            size += cube.getStorage().getBlockLight().getData().length;
+            if (cube.getWorld().provider.hasSkyLight()) {
+                size += cube.getStorage().getSkyLight().getData().length;
             }
         }
-
-        // heightmaps
-        size += 256 * Integer.BYTES * cubes.size();
-        // biomes
-        for (Cube cube : cubes) {
-            byte[] biomeArray = cube.getBiomeArray();
-            if (biomeArray == null)
-                continue;
+        // 5. heightmap
+        if (!cube.isEmpty()) {
+            size += Cube.SIZE * Cube.SIZE * Integer.BYTES;
+        }
+        // 6. biomes
+        byte[] biomeArray = cube.getBiomeArray();
+        if (biomeArray != null) {
             size += biomeArray.length;
         }
         return size;
@@ -0,0 +1,90 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2021 OpenCubicChunks
+ *  Copyright (c) 2015-2021 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server;
+
+import io.github.opencubicchunks.cubicchunks.core.network.PacketCubeBlockChange;
+import io.github.opencubicchunks.cubicchunks.core.network.PacketDispatcher;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.network.Packet;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Collects the block changes CubeWatchers send to each player during a tick, so that all of them are sent to the player in one packet instead
+ * of one packet for each changed cube.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class BlockChangeAggregator {
+
+    // keeps single packets at a reasonable size even when a very large area changes at once
+    private static final int MAX_CUBES_PER_PACKET = 512;
+
+    private final Map<EntityPlayerMP, PendingChanges> pending = new IdentityHashMap<>();
+
+    void addCubeChanges(EntityPlayerMP player, PacketCubeBlockChange.CubeChanges changes) {
+        pending.computeIfAbsent(player, p -> new PendingChanges()).cubeChanges.add(changes);
+    }
+
+    /**
+     * Queues a packet to be sent after the block changes, for data that depends on the blocks already being changed on the client,
+     * like block entity updates.
+     */
+    void addPacketAfterChanges(EntityPlayerMP player, Packet<?> packet) {
+        pending.computeIfAbsent(player, p -> new PendingChanges()).packetsAfterChanges.add(packet);
+    }
+
+    /**
+     * Sends all collected changes, should be called once per tick after all CubeWatchers have been updated.
+     */
+    void sendAll() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        pending.forEach((player, changes) -> {
+            List<PacketCubeBlockChange.CubeChanges> cubeChanges = changes.cubeChanges;
+            for (int start = 0; start < cubeChanges.size(); start += MAX_CUBES_PER_PACKET) {
+                int end = Math.min(cubeChanges.size(), start + MAX_CUBES_PER_PACKET);
+                PacketDispatcher.sendTo(new PacketCubeBlockChange(cubeChanges.subList(start, end)), player);
+            }
+            for (Packet<?> packet : changes.packetsAfterChanges) {
+                player.connection.sendPacket(packet);
+            }
+        });
+        pending.clear();
+    }
+
+    private static final class PendingChanges {
+
+        final List<PacketCubeBlockChange.CubeChanges> cubeChanges = new ArrayList<>();
+        final List<Packet<?>> packetsAfterChanges = new ArrayList<>();
+    }
+}
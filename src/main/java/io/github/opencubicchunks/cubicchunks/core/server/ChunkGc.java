@@ -28,15 +28,25 @@ import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.profiler.Profiler;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.chunk.Chunk;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import java.util.Collection;
 import java.util.Iterator;
 
 /**
  * Chunk Garbage Collector, automatically unloads unused chunks.
+ * <p>
+ * In incremental mode (see {@link CubicChunksConfig#incrementalChunkGC}), cubes reported by
+ * {@link CubeProviderServer#markUnloadCandidate(Cube)} are checked every tick, and the full scan over all loaded cubes and
+ * columns is spread across multiple ticks, each limited by {@link CubicChunksConfig#chunkGCTimeBudgetNanos}.
  */
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
@@ -46,6 +56,19 @@ public class ChunkGc {
 
     private int tick = 0;
 
+    // incremental mode state
+    private long lastIncrementalTick = Long.MIN_VALUE;
+    // columns of unloaded cubes, checked with priority as they are likely to be unloadable
+    private final LongLinkedOpenHashSet columnCandidates = new LongLinkedOpenHashSet();
+    // non-null while the cube part of the full scan is in progress. Cubes are added at the end of the cube map, and
+    // unloading candidates outside of this iterator may move at most one not yet visited cube behind it, so it stays
+    // valid across ticks. Anything skipped will be checked by the next scan.
+    @Nullable private Iterator<Cube> cubeCursor;
+    // non-null while the column part of the full scan is in progress. Column map iterators are not safe across ticks,
+    // so the keys are copied when the column scan starts
+    @Nullable private LongArrayList columnScan;
+    private int columnScanIndex;
+
     public ChunkGc(CubeProviderServer cubeCache) {
         this.cubeCache = cubeCache;
     }
@@ -53,9 +76,29 @@ public class ChunkGc {
     public void tick() {
         cubeCache.world.profiler.startSection("chunkGc");
         tick++;
-        if (tick > CubicChunksConfig.chunkGCInterval) {
-            tick = 0;
-            chunkGc();
+        if (CubicChunksConfig.incrementalChunkGC) {
+            if (tick > CubicChunksConfig.chunkGCInterval && cubeCursor == null && columnScan == null) {
+                tick = 0;
+                cubeCursor = cubeCache.cubesIterator();
+            }
+            // this may be called multiple times per tick, but the time budget is per tick
+            long worldTick = cubeCache.world.getTotalWorldTime();
+            if (worldTick != lastIncrementalTick) {
+                lastIncrementalTick = worldTick;
+                incrementalChunkGc();
+            }
+        } else {
+            if (tick > CubicChunksConfig.chunkGCInterval) {
+                tick = 0;
+                chunkGc();
+            }
+            if (cubeCursor != null || columnScan != null || !columnCandidates.isEmpty()) {
+                // incremental mode has been disabled
+                cubeCursor = null;
+                columnScan = null;
+                columnCandidates.clear();
+                cubeCache.getUnloadCandidates().clear();
+            }
         }
         if (CubicChunks.DEBUG_ENABLED) {
             verifyColumnConsistency();
@@ -97,6 +140,60 @@ public class ChunkGc {
         }
     }
 
+    private void incrementalChunkGc() {
+        Profiler profiler = cubeCache.world.profiler;
+        long deadline = System.nanoTime() + CubicChunksConfig.chunkGCTimeBudgetNanos;
+
+        profiler.startSection("unloadCandidates");
+        ObjectLinkedOpenHashSet<Cube> candidates = cubeCache.getUnloadCandidates();
+        while (!candidates.isEmpty() && System.nanoTime() < deadline) {
+            Cube cube = candidates.removeFirst();
+            // it may have been already unloaded by the full scan
+            if (cubeCache.getLoadedCube(cube.getX(), cube.getY(), cube.getZ()) == cube && cubeCache.tryUnloadCube(cube)) {
+                cubeCache.removeUnloadedCube(cube);
+                columnCandidates.add(ChunkPos.asLong(cube.getX(), cube.getZ()));
+            }
+        }
+        while (!columnCandidates.isEmpty() && System.nanoTime() < deadline) {
+            tryUnloadColumn(columnCandidates.removeFirstLong());
+        }
+
+        profiler.endStartSection("cubes");
+        if (cubeCursor != null) {
+            while (cubeCursor.hasNext() && System.nanoTime() < deadline) {
+                if (cubeCache.tryUnloadCube(cubeCursor.next())) {
+                    cubeCursor.remove();
+                }
+            }
+            if (!cubeCursor.hasNext()) {
+                cubeCursor = null;
+                columnScan = new LongArrayList(cubeCache.loadedChunks.keySet());
+                columnScanIndex = 0;
+            }
+        }
+
+        profiler.endStartSection("columns");
+        if (columnScan != null) {
+            while (columnScanIndex < columnScan.size() && System.nanoTime() < deadline) {
+                tryUnloadColumn(columnScan.getLong(columnScanIndex++));
+            }
+            if (columnScanIndex >= columnScan.size()) {
+                columnScan = null;
+            }
+        }
+        profiler.endSection();
+    }
+
+    private void tryUnloadColumn(long pos) {
+        Chunk column = cubeCache.loadedChunks.get(pos);
+        if (column == null) {
+            return;
+        }
+        if (cubeCache.tryUnloadColumn(column)) {
+            cubeCache.loadedChunks.remove(pos);
+        }
+    }
+
     public void chunkGc() {
         Iterator<Cube> cubeIt = cubeCache.cubesIterator();
         while (cubeIt.hasNext()) {
@@ -54,6 +54,8 @@ public class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable
 
     @Nonnull private final PlayerCubeMap playerCubeMap;
     @Nonnull private final BitSet dirtyColumns = new BitSet(256);
+    // whether this watcher is in PlayerCubeMap's list of watchers to update
+    boolean queuedForUpdate = false;
 
     ColumnWatcher(PlayerCubeMap playerCubeMap, ChunkPos pos) {
         super(playerCubeMap, pos.x, pos.z);
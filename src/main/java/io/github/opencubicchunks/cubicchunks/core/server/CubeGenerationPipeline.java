@@ -0,0 +1,202 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2021 OpenCubicChunks
+ *  Copyright (c) 2015-2021 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.worldgen.CubePrimer;
+import io.github.opencubicchunks.cubicchunks.api.worldgen.ICubeGenerator;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.github.opencubicchunks.cubicchunks.core.server.chunkio.ICubeIO;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Generates cubes on worker threads for generators that {@link ICubeGenerator#supportsConcurrentCubeGeneration() support it}. Only
+ * {@link ICubeGenerator#tryGenerateCube(int, int, int, CubePrimer, boolean)} runs on the workers, the generated primers are turned into cubes on the
+ * server thread.
+ * <p>
+ * Everything except the generation task itself must be called from the server thread.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class CubeGenerationPipeline {
+
+    // how many cubes per generation thread may be generated or waiting to be added to the world at once
+    private static final int MAX_TASKS_PER_THREAD = 16;
+
+    private static ExecutorService generationExecutor;
+
+    private static synchronized ExecutorService generationExecutor() {
+        if (generationExecutor == null) {
+            AtomicInteger threadCounter = new AtomicInteger();
+            generationExecutor = Executors.newFixedThreadPool(CubicChunksConfig.cubeGenerationThreads, r -> {
+                Thread thread = new Thread(r, "Cubic Chunks Generation Thread #" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return generationExecutor;
+    }
+
+    private final ICubeGenerator cubeGen;
+    private final ICubeIO cubeIO;
+    private final boolean enabled;
+    private final int maxTasks;
+
+    // tasks that haven't been added to the world yet, a task is removed when its cube is loaded some other way
+    private final Map<CubePos, Task> tasks = new HashMap<>();
+    private final Queue<Task> finishedTasks = new ConcurrentLinkedQueue<>();
+    private final Queue<CubePrimer> primerPool = new ConcurrentLinkedQueue<>();
+
+    CubeGenerationPipeline(ICubeGenerator cubeGen, ICubeIO cubeIO) {
+        this.cubeGen = cubeGen;
+        this.cubeIO = cubeIO;
+        this.enabled = CubicChunksConfig.cubeGenerationThreads > 0 && cubeGen.supportsConcurrentCubeGeneration();
+        this.maxTasks = CubicChunksConfig.cubeGenerationThreads * MAX_TASKS_PER_THREAD;
+    }
+
+    boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Starts generating the cube on a worker thread, unless it's already being generated or too many cubes are being generated already.
+     *
+     * @return whether the cube is being generated
+     */
+    boolean request(CubePos pos) {
+        if (this.tasks.containsKey(pos)) {
+            return true;
+        }
+        if (this.tasks.size() >= this.maxTasks
+                || this.cubeGen.pollAsyncCubeGenerator(pos.getX(), pos.getY(), pos.getZ()) != ICubeGenerator.GeneratorReadyState.READY) {
+            return false;
+        }
+        Task task = new Task(pos);
+        this.tasks.put(pos, task);
+        generationExecutor().execute(task);
+        return true;
+    }
+
+    /**
+     * Called when a cube is loaded or generated outside of this pipeline, so that the result of generating it here is thrown away.
+     */
+    void onCubeLoaded(CubePos pos) {
+        if (!this.tasks.isEmpty()) {
+            this.tasks.remove(pos);
+        }
+    }
+
+    /**
+     * Adds all cubes generated since the last call to the world.
+     *
+     * @param integrator creates the cube from the primer and adds it to the world. The primer may be reused after it returns.
+     * @param loadExisting loads a cube which turned out to exist in the save, and calls {@link #onCubeLoaded(CubePos)} when done. Until then the
+     *     cube is considered to be still in progress.
+     */
+    void integrateGeneratedCubes(CubeIntegrator integrator, Consumer<CubePos> loadExisting) {
+        Task task;
+        while ((task = this.finishedTasks.poll()) != null) {
+            // the cube was loaded some other way in the meantime
+            if (this.tasks.get(task.pos) != task) {
+                task.releasePrimer();
+                continue;
+            }
+            if (task.existsInSave) {
+                task.releasePrimer();
+                loadExisting.accept(task.pos);
+                continue;
+            }
+            this.tasks.remove(task.pos);
+            if (task.result != null) {
+                integrator.integrate(task.pos, task.result);
+            }
+            task.releasePrimer();
+        }
+    }
+
+    @FunctionalInterface
+    interface CubeIntegrator {
+        void integrate(CubePos pos, CubePrimer primer);
+    }
+
+    private final class Task implements Runnable {
+
+        private final CubePos pos;
+        @Nullable private CubePrimer primer;
+        private boolean failed;
+        private volatile boolean existsInSave;
+        // null if the cube couldn't be generated now
+        @Nullable private volatile CubePrimer result;
+
+        private Task(CubePos pos) {
+            this.pos = pos;
+        }
+
+        @Override public void run() {
+            try {
+                // the cube may have been unloaded and saved since it was requested
+                if (cubeIO.cubeExists(pos.getX(), pos.getY(), pos.getZ())) {
+                    this.existsInSave = true;
+                    return;
+                }
+                CubePrimer primer = primerPool.poll();
+                this.primer = primer == null ? new CubePrimer() : primer;
+                Optional<CubePrimer> generated = cubeGen.tryGenerateCube(pos.getX(), pos.getY(), pos.getZ(), this.primer, false);
+                this.result = generated.orElse(null);
+            } catch (Throwable t) {
+                this.failed = true;
+                CubicChunks.LOGGER.error("Failed to generate cube at " + pos + " on a generation thread", t);
+            } finally {
+                finishedTasks.add(this);
+            }
+        }
+
+        private void releasePrimer() {
+            if (this.primer == null) {
+                return;
+            }
+            // generators that return a different primer must leave the given one unmodified, so it can be reused unless generating failed
+            if (!this.failed && primerPool.size() < maxTasks) {
+                this.primer.reset();
+                primerPool.add(this.primer);
+            }
+            this.primer = null;
+        }
+    }
+}
@@ -26,6 +26,7 @@ package io.github.opencubicchunks.cubicchunks.core.server;
 
 import io.github.opencubicchunks.cubicchunks.api.world.storage.StorageFormatProviderBase;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.github.opencubicchunks.cubicchunks.core.lighting.ILightingManager;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.server.chunkio.AsyncBatchingCubeIO;
 import io.github.opencubicchunks.cubicchunks.core.server.chunkio.ICubeIO;
@@ -34,8 +35,9 @@ import io.github.opencubicchunks.cubicchunks.api.worldgen.CubePrimer;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.api.worldgen.ICubeGenerator;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubeProviderServer;
-import io.github.opencubicchunks.cubicchunks.api.util.Box;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.util.IXYZMap;
+import io.github.opencubicchunks.cubicchunks.api.util.PackedXYZMap;
 import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
@@ -43,11 +45,13 @@ import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.core.world.WorldSavedCubicChunksData;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.BlankCube;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.entity.EnumCreatureType;
 import net.minecraft.profiler.Profiler;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.EnumSkyBlock;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldServer;
 import net.minecraft.world.biome.Biome;
@@ -56,11 +60,13 @@ import net.minecraft.world.chunk.ChunkPrimer;
 import net.minecraft.world.gen.ChunkProviderServer;
 import net.minecraftforge.common.ForgeChunkManager;
 import net.minecraftforge.fml.common.StartupQuery;
-import net.minecraftforge.fml.common.registry.GameRegistry;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
@@ -92,11 +98,15 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
     @Nonnull private final WorldServer worldServer;
     @Nonnull private final ICubeIO cubeIO;
 
-    // TODO: Use a better hash map!
-    @Nonnull private final XYZMap<Cube> cubeMap = new XYZMap<>(0.7f, 8000);
+    @Nonnull private final IXYZMap<Cube> cubeMap = CubicChunksConfig.usePackedCubeMap ?
+            new PackedXYZMap<>(0.7f, 8000) : new XYZMap<>(0.7f, 8000);
+    // cubes that may have become unloadable since they were last checked, used by incremental ChunkGc
+    @Nonnull private final ObjectLinkedOpenHashSet<Cube> unloadCandidates = new ObjectLinkedOpenHashSet<>();
 
     @Nonnull private final CubePrimer cubePrimer;
     @Nonnull private final ICubeGenerator cubeGen;
+    @Nonnull private final CubeGenerationPipeline generationPipeline;
+    @Nonnull private final PopulationScheduler populationScheduler;
     @Nonnull private final Profiler profiler;
     // some mods will try to access blocks in ChunkDataEvent.Load
     // this needs the column to be already known by the chunk provider so that it can load cubes without trying to load the column again
@@ -129,10 +139,12 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
                 StartupQuery.abort();
             }
 
-            this.cubeIO = new AsyncBatchingCubeIO(worldServer, format.provideStorage(worldServer, path));
+            this.cubeIO = new AsyncBatchingCubeIO(worldServer, format.provideStorage(worldServer, path), format.usesBinaryCubeData());
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
+        this.generationPipeline = new CubeGenerationPipeline(cubeGen, cubeIO);
+        this.populationScheduler = new PopulationScheduler(this, cubeGen, worldServer, chunkGenerator);
 
         this.emptyColumn = new EmptyColumn(worldServer, 0, 0);
         this.emptyCube = new BlankCube(emptyColumn);
@@ -227,6 +239,11 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
     public boolean tick() {
         // NOTE: the return value is completely ignored
         profiler.startSection("providerTick");
+        if (generationPipeline.isEnabled()) {
+            profiler.startSection("integrateGeneratedCubes");
+            integrateGeneratedCubes();
+            profiler.endSection();
+        }
         long i = System.currentTimeMillis();
         Random rand = this.world.rand;
         PlayerCubeMap playerCubeMap = ((PlayerCubeMap) this.world.getPlayerChunkMap());
@@ -241,8 +258,11 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 
     @Override
     public String makeString() {
+        ILightingManager lightingManager = ((ICubicWorldInternal) this.worldServer).getLightingManager();
         return "CubeProviderServer: " + this.loadedChunks.size() + " columns, "
-                + this.cubeMap.getSize() + " cubes";
+                + this.cubeMap.getSize() + " cubes, peak light queue "
+                + lightingManager.getPeakQueueDepth(EnumSkyBlock.SKY) + " sky, "
+                + lightingManager.getPeakQueueDepth(EnumSkyBlock.BLOCK) + " block";
     }
 
     @Override
@@ -336,7 +356,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
     }
 
     @Nullable
-    private Cube getCube(int cubeX, int cubeY, int cubeZ, Requirement req, boolean forceNow) {
+    Cube getCube(int cubeX, int cubeY, int cubeZ, Requirement req, boolean forceNow) {
         Cube cube = getLoadedCube(cubeX, cubeY, cubeZ);
         if (req == Requirement.GET_CACHED ||
                 (cube != null && req.compareTo(Requirement.GENERATE) <= 0)) {
@@ -379,6 +399,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
      */
     private void onCubeLoaded(@Nullable Cube cube, Chunk column) {
         if (cube != null) {
+            generationPipeline.onCubeLoaded(cube.getCoords());
             cubeMap.put(cube); // cache the Cube
             //synchronous loading may cause it to be called twice when async loading has been already queued
             //because AsyncWorldIOExecutor only executes one task for one cube and because only saving a cube
@@ -387,6 +408,9 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
             if (!((IColumn) column).getLoadedCubes().contains(cube)) {
                 ((IColumn) column).addCube(cube);
                 cube.onLoad(); // init the Cube
+                if (cube.getTickets().canUnload()) {
+                    markUnloadCandidate(cube);
+                }
             }
         }
     }
@@ -482,66 +506,88 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
     }
 
     /**
-     * Populate a cube at the specified position, generating surrounding cubes as necessary
+     * Requests generating the given cube, and the cubes needed to fully populate it, on the generation threads, if the generator supports
+     * concurrent cube generation. Cubes that are already loaded are skipped, cubes which exist in the save are loaded instead of generated.
      *
-     * @param cube The cube to populate
+     * @return true if all the cubes are loaded and the cube can be provided without waiting for the generation threads
      */
-    private boolean populateCube(Cube cube, boolean forceNow) {
-        int cubeX = cube.getX();
-        int cubeY = cube.getY();
-        int cubeZ = cube.getZ();
-
-        // for all cubes needed for full population - generate their population requirements
-        Box fullPopulation = cubeGen.getFullPopulationRequirements(cube);
-        if (CubicChunksConfig.useVanillaChunkWorldGenerators) {
-            if (cube.getY() >= 0 && cube.getY() < 16) {
-                fullPopulation = new Box(
-                        0, -cube.getY(), 0,
-                        0, 16 - cube.getY() - 1, 0
-                ).add(fullPopulation);
-            }
+    boolean prepareCubeAsync(int cubeX, int cubeY, int cubeZ) {
+        if (!generationPipeline.isEnabled()) {
+            return true;
         }
-        boolean success = fullPopulation.allMatch((x, y, z) -> {
-            // this also generates the cube
-            Cube fullPopulationCube = getCube(x + cubeX, y + cubeY, z + cubeZ);
-            Box newBox = cubeGen.getPopulationPregenerationRequirements(fullPopulationCube);
-            if (CubicChunksConfig.useVanillaChunkWorldGenerators) {
-                if (cube.getY() >= 0 && cube.getY() < 16) {
-                    newBox = new Box(
-                            0, -cube.getY(), 0,
-                            0, 16 - cube.getY() - 1, 0
-                    ).add(newBox);
-                }
+        integrateGeneratedCubes();
+        Cube cube = getLoadedCube(cubeX, cubeY, cubeZ);
+        if (cube == null) {
+            generationPipeline.request(new CubePos(cubeX, cubeY, cubeZ));
+            return false;
+        }
+        if (cube.isFullyPopulated()) {
+            return true;
+        }
+        // population generates any other cubes it needs on the server thread, so only the cubes it populates are generated here
+        boolean[] ready = {true};
+        cubeGen.getFullPopulationRequirements(cube).forEachPoint((x, y, z) -> {
+            if (getLoadedCube(cubeX + x, cubeY + y, cubeZ + z) == null && generationPipeline.request(new CubePos(cubeX + x, cubeY + y, cubeZ + z))) {
+                ready[0] = false;
             }
-            boolean generated = newBox.allMatch((nx, ny, nz) -> {
-                int genX = cubeX + x + nx;
-                int genY = cubeY + y + ny;
-                int genZ = cubeZ + z + nz;
-                return !(getCube(genX, genY, genZ, Requirement.GENERATE, forceNow) instanceof BlankCube);
-            });
-            if (!generated) {
-                return false;
+        });
+        return ready[0];
+    }
+
+    private void integrateGeneratedCubes() {
+        generationPipeline.integrateGeneratedCubes((pos, primer) -> {
+            Chunk column = getColumn(pos.getX(), pos.getZ(), Requirement.GENERATE);
+            if (column == null || column.isEmpty() || getLoadedCube(pos.getX(), pos.getY(), pos.getZ()) != null) {
+                return;
             }
-            // a check for populators that populate more than one cube (vanilla compatibility generator)
-            if (!fullPopulationCube.isPopulated()) {
-                cubeGen.populate(fullPopulationCube);
-                fullPopulationCube.setPopulated(true);
+            onCubeLoaded(new Cube(column, pos.getY(), primer), column);
+        }, pos -> {
+            // the cube has been saved since generating it was requested, load it instead. asyncGetCube only adds it if the column is loaded
+            Chunk column = getColumn(pos.getX(), pos.getZ(), Requirement.GENERATE);
+            if (column == null || column.isEmpty()) {
+                generationPipeline.onCubeLoaded(pos);
+                return;
             }
-            return true;
+            asyncGetCube(pos.getX(), pos.getY(), pos.getZ(), Requirement.LOAD, loaded -> generationPipeline.onCubeLoaded(pos));
         });
-        if (!success) {
-            return false;
+    }
+
+    /**
+     * Populate a cube at the specified position, generating surrounding cubes as necessary
+     *
+     * @param cube The cube to populate
+     */
+    private boolean populateCube(Cube cube, boolean forceNow) {
+        populationScheduler.populate(Collections.singletonList(cube), forceNow, Long.MAX_VALUE);
+        return cube.isFullyPopulated();
+    }
+
+    /**
+     * Fully populates as many of the given cubes as possible, generating and populating each of the surrounding cubes they need at most once.
+     *
+     * @param cubes The cubes to populate
+     * @param stopTime the {@link System#nanoTime()} after which population stops
+     */
+    void populateCubes(Collection<Cube> cubes, long stopTime) {
+        populationScheduler.populate(cubes, false, stopTime);
+
+        // light everything that got populated together, so adjacent cubes share one pass
+        List<Cube> toLight = new ArrayList<>();
+        for (Cube cube : cubes) {
+            if (cube.isFullyPopulated() && (!cube.isInitialLightingDone() || !cube.isSurfaceTracked())) {
+                toLight.add(cube);
+            }
         }
-        if (CubicChunksConfig.useVanillaChunkWorldGenerators) {
-            Box.Mutable box = fullPopulation.asMutable();
-            box.setY1(0);
-            box.setY2(0);
-            box.forEachPoint((x, y, z) -> {
-                GameRegistry.generateWorld(cube.getX() + x, cube.getZ() + z, world, chunkGenerator, world.getChunkProvider());
-            });
+        if (toLight.isEmpty()) {
+            return;
+        }
+        ((ICubicWorldInternal) this.worldServer).getLightingManager().doFirstLight(toLight);
+        for (Cube cube : toLight) {
+            cube.setInitialLightingDone(true);
+            if (!cube.isSurfaceTracked()) {
+                cube.trackSurface();
+            }
         }
-        cube.setFullyPopulated(true);
-        return true;
     }
 
     /**
@@ -674,6 +720,29 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         return cubeMap.iterator();
     }
 
+    /**
+     * Marks the cube as possibly unloadable, so that incremental {@link ChunkGc} can check it without waiting for a full
+     * scan of all loaded cubes.
+     *
+     * @param cube the cube that may be unloadable
+     */
+    public void markUnloadCandidate(Cube cube) {
+        if (CubicChunksConfig.incrementalChunkGC) {
+            unloadCandidates.add(cube);
+        }
+    }
+
+    ObjectLinkedOpenHashSet<Cube> getUnloadCandidates() {
+        return unloadCandidates;
+    }
+
+    /**
+     * Removes an already unloaded cube from the loaded cube map. Used to unload cubes outside of {@link #cubesIterator()}.
+     */
+    void removeUnloadedCube(Cube cube) {
+        cubeMap.remove(cube);
+    }
+
     @SuppressWarnings("unchecked")
     Iterator<Chunk> columnsIterator() {
         return loadedChunks.values().iterator();
@@ -28,9 +28,11 @@ import com.google.common.base.Predicate;
 import gnu.trove.list.TShortList;
 import gnu.trove.list.array.TShortArrayList;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.api.world.CubeUnWatchEvent;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubeProviderServer;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubeWatcher;
+import io.github.opencubicchunks.cubicchunks.api.world.IHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.entity.ICubicEntityTracker;
@@ -40,6 +42,7 @@ import io.github.opencubicchunks.cubicchunks.core.network.PacketUnloadCube;
 import io.github.opencubicchunks.cubicchunks.core.server.chunkio.async.forge.AsyncWorldIOExecutor;
 import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
 import io.github.opencubicchunks.cubicchunks.core.util.ticket.ITicket;
+import io.github.opencubicchunks.cubicchunks.core.visibility.CubeFaceConnectivity;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.BlankCube;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
@@ -50,11 +53,17 @@ import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.network.Packet;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Vec3d;
 import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
 import net.minecraftforge.common.ForgeModContainer;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
@@ -64,6 +73,10 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @MethodsReturnNonnullByDefault
 public class CubeWatcher implements ITicket, ICubeWatcher {
 
+    // how many ticks ahead the position of moving players is predicted for getLoadPriority
+    private static final double MOVEMENT_PREDICTION_TICKS = 20;
+    private static final double BELOW_SURFACE_PRIORITY_FACTOR = 4;
+
     private final Consumer<Cube> consumer;
 
     private final CubeProviderServer cubeCache;
@@ -76,6 +89,13 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
     private boolean sentToPlayers = false;
     private boolean loading = true;
     private boolean invalid = false;
+    // whether this watcher is in PlayerCubeMap's list of watchers to update
+    boolean queuedForUpdate = false;
+    // cached result of CubeFaceConnectivity.compute, valid only for connectivityCube and reset when a block changes
+    @Nullable private Cube connectivityCube;
+    private int faceConnectivity;
+    // packets for players who are still waiting for the cube to be sent, they are sent right after it
+    @Nullable private Map<EntityPlayerMP, List<IMessage>> packetsAfterCube;
 
     // CHECKED: 1.10.2-12.18.1.2092
     CubeWatcher(PlayerCubeMap playerCubeMap, CubePos cubePos) {
@@ -140,6 +160,9 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         }
 
         this.players.remove(player);
+        if (this.packetsAfterCube != null) {
+            this.packetsAfterCube.remove(player);
+        }
         MinecraftForge.EVENT_BUS.post(new CubeUnWatchEvent(cube, cubePos, this, player));
 
         if (this.players.isEmpty()) {
@@ -173,6 +196,11 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
 
         playerCubeMap.getWorldServer().profiler.startSection("getCube");
         if (canGenerate) {
+            // with a concurrent generator, wait for the generation threads instead of generating on the server thread
+            if (!this.cubeCache.prepareCubeAsync(cubeX, cubeY, cubeZ)) {
+                playerCubeMap.getWorldServer().profiler.endSection();
+                return false;
+            }
             this.cube = this.cubeCache.getCube(cubeX, cubeY, cubeZ, ICubeProviderServer.Requirement.LIGHT);
             assert this.cube != null;
             if (this.cube instanceof BlankCube) {
@@ -269,6 +297,7 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         // so we need to know all changed blocks. So add everything
         // it's a set so no need to check for duplicates
         this.dirtyBlocks.add((short) AddressTools.getLocalAddress(localX, localY, localZ));
+        this.connectivityCube = null;
     }
 
     // CHECKED: 1.10.2-12.18.1.2092
@@ -284,45 +313,57 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
 
         World world = this.cube.getWorld();
 
-        if (this.dirtyBlocks.size() >= ForgeModContainer.clumpingThreshold) {
-            // send whole cube
-            this.players.forEach(entry -> playerCubeMap.scheduleSendCubeToPlayer(cube, entry));
-        } else {
+        PacketCubeBlockChange.CubeChanges changes = null;
+        List<Packet<?>> blockEntityPackets = null;
+        for (EntityPlayerMP player : this.players) {
+            if (playerCubeMap.isCubeSendPending(cube, player)) {
+                continue; // the changes are sent with the whole cube
+            }
+            boolean hasCubicChunks = playerCubeMap.vanillaNetworkHandler.hasCubicChunks(player);
+            if (hasCubicChunks && changes == null) { // create changes lazily
+                changes = new PacketCubeBlockChange.CubeChanges(this.cube, this.dirtyBlocks);
+            }
+            // for cubic chunks clients the size of the changes is how many runs of the same block they are encoded as
+            int size = hasCubicChunks ? changes.getRunCount() : this.dirtyBlocks.size();
+            if (size >= ForgeModContainer.clumpingThreshold) {
+                // send whole cube
+                playerCubeMap.scheduleSendCubeToPlayer(cube, player);
+                continue;
+            }
             // send all the dirty blocks
-            PacketCubeBlockChange packet = null;
-            for (EntityPlayerMP player : this.players) {
-                if (playerCubeMap.vanillaNetworkHandler.hasCubicChunks(player)) {
-                    if (packet == null) { // create packet lazily
-                        packet = new PacketCubeBlockChange(this.cube, this.dirtyBlocks);
-                    }
-                    PacketDispatcher.sendTo(packet, player);
-                } else {
-                    playerCubeMap.vanillaNetworkHandler.sendBlockChanges(dirtyBlocks, cube, player);
-                }
+            if (hasCubicChunks) {
+                playerCubeMap.blockChangeAggregator.addCubeChanges(player, changes);
+            } else {
+                playerCubeMap.vanillaNetworkHandler.sendBlockChanges(dirtyBlocks, cube, player);
             }
             // send the block entites on those blocks too
-            this.dirtyBlocks.forEach(localAddress -> {
-                BlockPos pos = cube.localAddressToBlockPos(localAddress);
-
-                IBlockState state = this.cube.getBlockState(pos);
-                if (state.getBlock().hasTileEntity(state)) {
-                    sendBlockEntityToAllPlayers(world.getTileEntity(pos));
-                }
-                return true;
-            });
+            if (blockEntityPackets == null) {
+                blockEntityPackets = getBlockEntityPackets(world);
+            }
+            for (Packet<?> packet : blockEntityPackets) {
+                playerCubeMap.blockChangeAggregator.addPacketAfterChanges(player, packet);
+            }
         }
         this.dirtyBlocks.clear();
     }
 
-    private void sendBlockEntityToAllPlayers(@Nullable TileEntity blockEntity) {
-        if (blockEntity == null) {
-            return;
-        }
-        Packet<?> packet = blockEntity.getUpdatePacket();
-        if (packet == null) {
-            return;
-        }
-        sendPacketToAllPlayers(packet);
+    private List<Packet<?>> getBlockEntityPackets(World world) {
+        assert cube != null;
+        List<Packet<?>> packets = new ArrayList<>();
+        this.dirtyBlocks.forEach(localAddress -> {
+            BlockPos pos = cube.localAddressToBlockPos(localAddress);
+
+            IBlockState state = this.cube.getBlockState(pos);
+            if (state.getBlock().hasTileEntity(state)) {
+                TileEntity blockEntity = world.getTileEntity(pos);
+                Packet<?> packet = blockEntity == null ? null : blockEntity.getUpdatePacket();
+                if (packet != null) {
+                    packets.add(packet);
+                }
+            }
+            return true;
+        });
+        return packets;
     }
 
     boolean containsPlayer(EntityPlayerMP player) {
@@ -386,6 +427,76 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         return this.cube;
     }
 
+    /**
+     * Returns which faces of this cube are connected through non-opaque blocks, see {@link CubeFaceConnectivity}. Cubes that aren't loaded yet
+     * are treated as fully connected.
+     */
+    int getFaceConnectivity() {
+        Cube cube = this.cube;
+        if (cube == null) {
+            return CubeFaceConnectivity.ALL_CONNECTED;
+        }
+        if (cube != this.connectivityCube) {
+            this.faceConnectivity = CubeFaceConnectivity.compute(cube.getStorage());
+            this.connectivityCube = cube;
+        }
+        return this.faceConnectivity;
+    }
+
+    /**
+     * Returns the priority of generating and sending this cube, lower values first. This is the squared distance to the closest player, weighted so
+     * that cubes in front of the players and in the direction they are moving come first, and cubes players can't see because they are
+     * underground while the player is above them come last.
+     */
+    double getLoadPriority() {
+        double min = Double.MAX_VALUE;
+        for (EntityPlayerMP entry : this.players.elements()) {
+            if (entry == null) {
+                break;
+            }
+            double priority = getLoadPriority(entry);
+            if (priority < min) {
+                min = priority;
+            }
+        }
+        return min;
+    }
+
+    private double getLoadPriority(EntityPlayerMP player) {
+        // where the player will be soon if it keeps moving the same way
+        double dx = cubePos.getXCenter() - (player.posX + (player.posX - player.lastTickPosX) * MOVEMENT_PREDICTION_TICKS);
+        double dy = cubePos.getYCenter() - (player.posY + (player.posY - player.lastTickPosY) * MOVEMENT_PREDICTION_TICKS);
+        double dz = cubePos.getZCenter() - (player.posZ + (player.posZ - player.lastTickPosZ) * MOVEMENT_PREDICTION_TICKS);
+        double distSq = dx * dx + dy * dy + dz * dz;
+        if (distSq < Cube.SIZE * Cube.SIZE) {
+            return distSq;
+        }
+        // cubes behind the player count as up to 3 times as far away as the ones in front
+        Vec3d look = player.getLookVec();
+        double cos = (dx * look.x + dy * look.y + dz * look.z) / Math.sqrt(distSq);
+        double priority = distSq * (2 - cos);
+        if (isHiddenBelowSurface(player)) {
+            priority *= BELOW_SURFACE_PRIORITY_FACTOR;
+        }
+        return priority;
+    }
+
+    /**
+     * Checks whether the cube is at least a cube below the top block of its column in all of its corners and its center, while the player is above
+     * that. Such cubes can only be seen through caves.
+     */
+    private boolean isHiddenBelowSurface(EntityPlayerMP player) {
+        Chunk column = this.cubeCache.getLoadedColumn(cubePos.getX(), cubePos.getZ());
+        if (column == null) {
+            return false;
+        }
+        IHeightMap heightMap = ((IColumn) column).getOpacityIndex();
+        int surface = Math.min(
+                Math.min(heightMap.getTopBlockY(0, 0), heightMap.getTopBlockY(15, 0)),
+                Math.min(Math.min(heightMap.getTopBlockY(0, 15), heightMap.getTopBlockY(15, 15)), heightMap.getTopBlockY(8, 8)));
+        return cubePos.getMaxBlockY() + Cube.SIZE < surface && player.posY > surface;
+    }
+
     double getClosestPlayerDistance() {
         double min = Double.MAX_VALUE;
 
@@ -407,15 +518,36 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         return playerCubeMap.getWorldServer().getWorldTime();
     }
 
-    private void sendPacketToAllPlayers(Packet<?> packet) {
+    @Override public void sendPacketToAllPlayers(IMessage packet) {
         for (EntityPlayerMP entry : this.players) {
-            entry.connection.sendPacket(packet);
+            if (cube != null && playerCubeMap.isCubeSendPending(cube, entry)) {
+                // the player wouldn't know which cube the packet is about yet
+                if (this.packetsAfterCube == null) {
+                    this.packetsAfterCube = new HashMap<>();
+                }
+                this.packetsAfterCube.computeIfAbsent(entry, p -> new ArrayList<>()).add(packet);
+                continue;
+            }
+            PacketDispatcher.sendTo(packet, entry);
         }
     }
 
-    @Override public void sendPacketToAllPlayers(IMessage packet) {
-        for (EntityPlayerMP entry : this.players) {
-            PacketDispatcher.sendTo(packet, entry);
+    /**
+     * Sends the packets which were sent to all players of this watcher while the given player was still waiting for the cube. Called after
+     * the cube has been sent to the player.
+     */
+    void sendPacketsAfterCube(EntityPlayerMP player) {
+        if (this.packetsAfterCube == null) {
+            return;
+        }
+        List<IMessage> packets = this.packetsAfterCube.remove(player);
+        if (this.packetsAfterCube.isEmpty()) {
+            this.packetsAfterCube = null;
+        }
+        if (packets != null) {
+            for (IMessage packet : packets) {
+                PacketDispatcher.sendTo(packet, player);
+            }
         }
     }
 
@@ -47,13 +47,16 @@ import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.entity.ICubicEntityTracker;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
+import io.github.opencubicchunks.cubicchunks.core.network.EncodedCubeCache;
+import io.github.opencubicchunks.cubicchunks.core.network.PacketCubeEncoding;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketCubes;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketDispatcher;
 import io.github.opencubicchunks.cubicchunks.core.util.WatchersSortingList;
-import io.github.opencubicchunks.cubicchunks.core.visibility.CubeSelector;
-import io.github.opencubicchunks.cubicchunks.core.visibility.CuboidalCubeSelector;
+import io.github.opencubicchunks.cubicchunks.core.visibility.CubeFaceConnectivity;
+import io.github.opencubicchunks.cubicchunks.core.visibility.OcclusionCubeSelector;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 import it.unimi.dsi.fastutil.objects.ObjectSet;
 import mcp.MethodsReturnNonnullByDefault;
@@ -62,6 +65,7 @@ import net.minecraft.server.management.PlayerChunkMap;
 import net.minecraft.server.management.PlayerChunkMapEntry;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.Vec3d;
 import net.minecraft.world.WorldProvider;
 import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
@@ -77,10 +81,12 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -99,14 +105,17 @@ public class PlayerCubeMap extends PlayerChunkMap {
     private static final Predicate<EntityPlayerMP> CAN_GENERATE_CHUNKS = player -> player != null &&
             (!player.isSpectator() || player.getServerWorld().getGameRules().getBoolean("spectatorsGenerateChunks"));
 
+    // every CubeWatcher is force-updated once in this many ticks
+    private static final long WATCHER_UPDATE_INTERVAL = 8000L;
+    // how often the cubes visible to a player who isn't moving to another cube are recomputed, in ticks
+    private static final long VISIBILITY_UPDATE_INTERVAL = 10L;
+    // cubes within this distance from the player's cube are never considered occluded
+    private static final int ALWAYS_VISIBLE_DISTANCE = 2;
+
     /**
-     * Comparator that specifies order in which cubes will be generated and sent to clients
+     * Priority function that specifies order in which cubes will be generated and sent to clients, lower values first
      */
-    private static final Comparator<CubeWatcher> CUBE_ORDER = (watcher1, watcher2) ->
-            ComparisonChain.start().compare(
-                    watcher1.getClosestPlayerDistance(),
-                    watcher2.getClosestPlayerDistance()
-            ).result();
+    private static final ToDoubleFunction<CubeWatcher> CUBE_PRIORITY = CubeWatcher::getLoadPriority;
 
     /**
      * Comparator that specifies order in which columns will be generated and sent to clients
@@ -118,10 +127,15 @@ public class PlayerCubeMap extends PlayerChunkMap {
             ).result();
 
     /**
-     * Cube selector is used to find which cube positions need to be loaded/unloaded
-     * By default use CuboidalCubeSelector.
+     * Cube selector is used to find which cube positions need to be loaded/unloaded.
+     * Loads the same cubes as CuboidalCubeSelector, and is also used to find cubes hidden from players when cullOccludedCubes is enabled.
      */
-    private final CubeSelector cubeSelector = new CuboidalCubeSelector();
+    private final OcclusionCubeSelector cubeSelector = new OcclusionCubeSelector();
+
+    /**
+     * Encoded cubes sent to players this tick, so that cubes sent to many players are encoded only once.
+     */
+    private final EncodedCubeCache encodedCubeCache = new EncodedCubeCache();
 
     /**
      * Mapping if entityId to PlayerCubeMap.PlayerWrapper objects.
@@ -143,14 +157,20 @@ public class PlayerCubeMap extends PlayerChunkMap {
     final XZMap<ColumnWatcher> columnWatchers = new XZMap<>(0.7f, 25 * 25);
 
     /**
-     * All cubeWatchers that have pending block updates to send.
+     * All cubeWatchers that have pending block updates to send. A watcher is in this list at most once, if it's
+     * {@link CubeWatcher#queuedForUpdate}. Removed watchers stay in the list until the next tick, but are no longer marked as queued.
+     */
+    private final ObjectArrayList<CubeWatcher> cubeWatchersToUpdate = new ObjectArrayList<>();
+
+    /**
+     * All columnWatchers that have pending height updates to send, see {@link #cubeWatchersToUpdate}.
      */
-    private final Set<CubeWatcher> cubeWatchersToUpdate = new HashSet<>();
+    private final ObjectArrayList<ColumnWatcher> columnWatchersToUpdate = new ObjectArrayList<>();
 
     /**
-     * All columnWatchers that have pending height updates to send.
+     * Block changes sent by cubeWatchers while they are updated, sent to each player in one packet once all watchers are updated.
      */
-    private final Set<ColumnWatcher> columnWatchersToUpdate = new HashSet<>();
+    final BlockChangeAggregator blockChangeAggregator = new BlockChangeAggregator();
 
     /**
      * A queue of cubes to add a player to, this limits the amount of cubes sent to a player per tick to the set limit
@@ -165,7 +185,7 @@ public class PlayerCubeMap extends PlayerChunkMap {
      * Note that this is not the same as cubesToGenerate list.
      * Cube can be loaded while not being fully generated yet (not in the last GeneratorStageRegistry stage).
      */
-    private final WatchersSortingList<CubeWatcher> cubesToSendToClients = new WatchersSortingList<CubeWatcher>(CUBE_ORDER);
+    private final WatchersSortingList<CubeWatcher> cubesToSendToClients = WatchersSortingList.byPriority(CUBE_PRIORITY);
 
     /**
      * Contains all CubeWatchers that still need to be loaded/generated.
@@ -173,7 +193,7 @@ public class PlayerCubeMap extends PlayerChunkMap {
      * Technically it can generate it, using the world's IGeneratorPipeline,
      * but spectator players can't generate chunks if spectatorsGenerateChunks gamerule is set.
      */
-    private final WatchersSortingList<CubeWatcher> cubesToGenerate = new WatchersSortingList<CubeWatcher>(CUBE_ORDER);
+    private final WatchersSortingList<CubeWatcher> cubesToGenerate = WatchersSortingList.byPriority(CUBE_PRIORITY);
 
     /**
      * Contains all ColumnWatchers that need to be sent to clients,
@@ -194,9 +214,10 @@ public class PlayerCubeMap extends PlayerChunkMap {
     private int verticalViewDistance;
 
     /**
-     * This is used only to force update of all CubeWatchers every 8000 ticks
+     * Position in cubeWatchers of the periodic update of all CubeWatchers, which updates a few of them every tick so that each one
+     * is updated every WATCHER_UPDATE_INTERVAL ticks
      */
-    private long previousWorldTime = 0;
+    @Nullable private Iterator<CubeWatcher> watcherUpdateIterator;
 
     private boolean toGenerateNeedSort = true;
     private boolean toSendToClientNeedSort = true;
@@ -214,6 +235,12 @@ public class PlayerCubeMap extends PlayerChunkMap {
     // (player respawn packet?)
     private Set<EntityPlayerMP> pendingPlayerAdd = new HashSet<>();
 
+    /**
+     * Players that moved to another cube again after their cube watchers have already been updated in the current tick. All of their moves
+     * are applied as a single move at the start of the next tick, or before ChunkGc runs.
+     */
+    private final ObjectLinkedOpenHashSet<PlayerWrapper> movedPlayers = new ObjectLinkedOpenHashSet<>();
+
     private final TickableChunkContainer tickableChunksCubesToReturn = new TickableChunkContainer();
 
     // see comment in updateMovingPlayer() for explnation why it's in this class
@@ -312,26 +339,42 @@ public class PlayerCubeMap extends PlayerChunkMap {
                 addPlayer(player);
             }
         }
+        getWorldServer().profiler.endStartSection("movedPlayers");
+        updateMovedPlayers();
         getWorldServer().profiler.endStartSection("tickEntries");
-        //force update-all every 8000 ticks (400 seconds)
-        if (currentTime - this.previousWorldTime > 8000L) {
-            this.previousWorldTime = currentTime;
-
-            for (CubeWatcher playerInstance : this.cubeWatchers) {
-                playerInstance.update();
-                playerInstance.updateInhabitedTime();
+        //force update-all every 8000 ticks (400 seconds), spread out over all the ticks
+        int watchersToUpdate = Math.min(this.cubeWatchers.getSize(), (int) (this.cubeWatchers.getSize() / WATCHER_UPDATE_INTERVAL) + 1);
+        for (int i = 0; i < watchersToUpdate; i++) {
+            if (this.watcherUpdateIterator == null || !this.watcherUpdateIterator.hasNext()) {
+                this.watcherUpdateIterator = this.cubeWatchers.iterator();
             }
+            CubeWatcher playerInstance = this.watcherUpdateIterator.next();
+            playerInstance.update();
+            playerInstance.updateInhabitedTime();
         }
 
-
         //process instances to update
         if (!cubeWatchersToUpdate.isEmpty()) {
-            this.cubeWatchersToUpdate.forEach(CubeWatcher::update);
+            // not using an iterator, updating may queue more watchers
+            for (int i = 0; i < this.cubeWatchersToUpdate.size(); i++) {
+                CubeWatcher watcher = this.cubeWatchersToUpdate.get(i);
+                if (watcher.queuedForUpdate) {
+                    watcher.queuedForUpdate = false;
+                    watcher.update();
+                }
+            }
             this.cubeWatchersToUpdate.clear();
         }
+        this.blockChangeAggregator.sendAll();
 
         if (!columnWatchersToUpdate.isEmpty()) {
-            this.columnWatchersToUpdate.forEach(ColumnWatcher::update);
+            for (int i = 0; i < this.columnWatchersToUpdate.size(); i++) {
+                ColumnWatcher watcher = this.columnWatchersToUpdate.get(i);
+                if (watcher.queuedForUpdate) {
+                    watcher.queuedForUpdate = false;
+                    watcher.update();
+                }
+            }
             this.columnWatchersToUpdate.clear();
         }
 
@@ -382,6 +425,24 @@ public class PlayerCubeMap extends PlayerChunkMap {
 
             long stopTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CubicChunksConfig.maxCubeGenerationTimeMillis);
             int chunksToGenerate = CubicChunksConfig.maxGeneratedCubesPerTick;
+
+            // populate the loaded cubes first, all at once, so that neighbours they have in common are only generated and populated once
+            getWorldServer().profiler.startSection("populate");
+            List<Cube> toPopulate = new ArrayList<>();
+            for (CubeWatcher watcher : this.cubesToGenerate) {
+                if (toPopulate.size() > chunksToGenerate) {
+                    break;
+                }
+                Cube cube = watcher.getCube();
+                if (cube != null && !cube.isFullyPopulated() && !watcher.isWaitingForColumn() && watcher.hasPlayerMatching(CAN_GENERATE_CHUNKS)) {
+                    toPopulate.add(cube);
+                }
+            }
+            if (!toPopulate.isEmpty()) {
+                this.cubeCache.populateCubes(toPopulate, stopTime);
+            }
+            getWorldServer().profiler.endSection();
+
             Iterator<CubeWatcher> iterator = this.cubesToGenerate.iterator();
 
             while (iterator.hasNext() && chunksToGenerate >= 0 && System.nanoTime() < stopTime) {
@@ -453,7 +514,8 @@ public class PlayerCubeMap extends PlayerChunkMap {
             for (Iterator<EntityPlayerMP> iterator = cubesToAddPlayerTo.keySet().iterator(); iterator.hasNext(); ) {
                 EntityPlayerMP entityPlayerMP = iterator.next();
                 WatchersSortingList<CubeWatcher> watchers = cubesToAddPlayerTo.get(entityPlayerMP);
-                int toSend = CubicChunksConfig.cubesToSendPerTick;
+                PlayerWrapper playerWrapper = players.get(entityPlayerMP.getEntityId());
+                int toSend = playerWrapper == null ? CubicChunksConfig.cubesToSendPerTick : playerWrapper.sendBudget.getCubesPerTick();
                 Iterator<CubeWatcher> iter;
                 for (iter = watchers.iterator(); toSend > 0 && iter.hasNext(); ) {
                     CubeWatcher watcher = iter.next();
@@ -489,16 +551,21 @@ public class PlayerCubeMap extends PlayerChunkMap {
         }
         getWorldServer().profiler.endStartSection("sendCubes");//unload
         if (!cubesToSend.isEmpty()) {
-            for (EntityPlayerMP player : cubesToSend.keySet()) {
-                Collection<Cube> cubes = cubesToSend.get(player);
-                if (!players.containsKey(player.getEntityId())) {
-                    CubicChunks.LOGGER.info("Skipping sending " + cubes.size() +
+            for (EntityPlayerMP player : new ArrayList<>(cubesToSend.keySet())) {
+                PlayerWrapper playerWrapper = players.get(player.getEntityId());
+                if (playerWrapper == null) {
+                    CubicChunks.LOGGER.info("Skipping sending " + cubesToSend.get(player).size() +
                             " chunks to player " + player.getName() + " that is no longer in this world!");
+                    cubesToSend.removeAll(player);
+                    continue;
+                }
+                List<Cube> cubes = selectCubesToSend(playerWrapper, cubesToSend.get(player), playerWrapper.sendBudget.update());
+                if (cubes.isEmpty()) {
                     continue;
                 }
                 ((ICubicWorldInternal) getWorldServer()).getLightingManager().onSendCubes(cubes);
                 if (vanillaNetworkHandler.hasCubicChunks(player)) {
-                    PacketCubes packet = new PacketCubes(new ArrayList<>(cubes));
+                    PacketCubes packet = new PacketCubes(new ArrayList<>(cubes), encodedCubeCache, PacketCubeEncoding.getCubeEncoding(player));
                     PacketDispatcher.sendTo(packet, player);
                 } else {
                     vanillaNetworkHandler.sendCubeLoadPackets(cubes, player);
@@ -509,14 +576,82 @@ public class PlayerCubeMap extends PlayerChunkMap {
                     CubeWatcher watcher = getCubeWatcher(cube.getCoords());
                     assert watcher != null;
                     MinecraftForge.EVENT_BUS.post(new CubeWatchEvent(cube, cube.getCoords(), watcher, player));
+                    watcher.sendPacketsAfterCube(player);
                 }
             }
-            cubesToSend.clear();
+            encodedCubeCache.clear();
         }
         getWorldServer().profiler.endSection();//sendCubes
         getWorldServer().profiler.endSection();//playerCubeMapTick
     }
 
+    /**
+     * Removes up to maxCubes cubes from the cubes waiting to be sent to the player and returns them. When not all of them can be sent, the cubes
+     * closest to the player are sent first, preferring the ones in front of the player. If cullOccludedCubes is enabled, cubes the player
+     * can't see are sent only after all the visible ones. The rest stays queued for the next tick.
+     */
+    private List<Cube> selectCubesToSend(PlayerWrapper playerWrapper, Collection<Cube> queued, int maxCubes) {
+        if (maxCubes <= 0) {
+            return Collections.emptyList();
+        }
+        EntityPlayerMP player = playerWrapper.playerEntity;
+        List<Cube> cubes = new ArrayList<>(queued);
+        if (cubes.size() > maxCubes) {
+            Vec3d look = player.getLookVec();
+            OcclusionCubeSelector.VisibilityMap visibility = CubicChunksConfig.cullOccludedCubes ? getVisibility(playerWrapper) : null;
+            Comparator<Cube> order = Comparator.comparingDouble(cube -> {
+                double dx = cube.getCoords().getXCenter() - player.posX;
+                double dy = cube.getCoords().getYCenter() - player.posY;
+                double dz = cube.getCoords().getZCenter() - player.posZ;
+                double distSq = dx * dx + dy * dy + dz * dz;
+                // cubes behind the player count as up to 3 times as far away as the ones in front
+                double cos = distSq == 0 ? 1 : (dx * look.x + dy * look.y + dz * look.z) / Math.sqrt(distSq);
+                return distSq * (2 - cos);
+            });
+            if (visibility != null) {
+                // visible cubes first, the order within each group is still by distance
+                order = Comparator.<Cube, Boolean>comparing(cube -> !isPossiblyVisible(visibility, cube.getCoords())).thenComparing(order);
+            }
+            cubes.sort(order);
+            cubes = cubes.subList(0, maxCubes);
+            // removing one by one keeps this linear, removeAll could compare every queued cube with every selected one
+            for (Cube cube : cubes) {
+                queued.remove(cube);
+            }
+        } else {
+            queued.clear();
+        }
+        return cubes;
+    }
+
+    private OcclusionCubeSelector.VisibilityMap getVisibility(PlayerWrapper playerWrapper) {
+        CubePos playerPos = playerWrapper.getManagedCubePos();
+        long worldTime = this.getWorldServer().getTotalWorldTime();
+        OcclusionCubeSelector.VisibilityMap visibility = playerWrapper.visibility;
+        // blocks changing can make more cubes visible, so the result is recomputed every few ticks even if the player didn't move
+        if (visibility == null || !visibility.getOrigin().equals(playerPos)
+                || worldTime - playerWrapper.visibilityTick >= VISIBILITY_UPDATE_INTERVAL) {
+            visibility = this.cubeSelector.findVisible(playerPos, horizontalViewDistance, verticalViewDistance, (x, y, z) -> {
+                CubeWatcher watcher = this.cubeWatchers.get(x, y, z);
+                return watcher == null ? CubeFaceConnectivity.ALL_CONNECTED : watcher.getFaceConnectivity();
+            });
+            playerWrapper.visibility = visibility;
+            playerWrapper.visibilityTick = worldTime;
+        }
+        return visibility;
+    }
+
+    private static boolean isPossiblyVisible(OcclusionCubeSelector.VisibilityMap visibility, CubePos pos) {
+        CubePos origin = visibility.getOrigin();
+        // cubes right next to the player are always sent, so that digging into them doesn't show holes in the world
+        if (Math.abs(pos.getX() - origin.getX()) <= ALWAYS_VISIBLE_DISTANCE
+                && Math.abs(pos.getY() - origin.getY()) <= ALWAYS_VISIBLE_DISTANCE
+                && Math.abs(pos.getZ() - origin.getZ()) <= ALWAYS_VISIBLE_DISTANCE) {
+            return true;
+        }
+        return visibility.isVisible(pos);
+    }
+
     // CHECKED: 1.10.2-12.18.1.2092
     @Override
     public boolean contains(int cubeX, int cubeZ) {
@@ -646,6 +781,7 @@ public class PlayerCubeMap extends PlayerChunkMap {
         // Minecraft does something evil there: this method is called *after* changing the player's position
         // so we need to use managedPosition there
         CubePos playerCubePos = CubePos.fromEntityCoords(player.managedPosX, playerWrapper.managedPosY, player.managedPosZ);
+        this.movedPlayers.remove(playerWrapper);
 
         // send unload columns later so that they get unloaded after their corresponding cubes
         ObjectSet<ColumnWatcher> toSendUnload = new ObjectOpenHashSet<>((horizontalViewDistance*2+1) * (horizontalViewDistance*2+1) * 6);
@@ -692,14 +828,18 @@ public class PlayerCubeMap extends PlayerChunkMap {
         if (!playerWrapper.cubePosChanged()) {
             return;
         }
-
-        this.updatePlayer(playerWrapper, playerWrapper.getManagedCubePos(), CubePos.fromEntity(player));
-        playerWrapper.updateManagedPos();
-        this.setNeedSort();
-
-        if (!vanillaNetworkHandler.hasCubicChunks(player)) {
-            vanillaNetworkHandler.updatePlayerPosition(this, player, playerWrapper.getManagedCubePos());
+        // fast moving players may move into a new cube multiple times per tick, only the first move is applied right away.
+        // The managed position isn't updated until the move is applied, so the later moves are applied as one move from there
+        long worldTime = this.getWorldServer().getTotalWorldTime();
+        if (playerWrapper.lastMoveTick == worldTime) {
+            this.movedPlayers.add(playerWrapper);
+            return;
         }
+        playerWrapper.lastMoveTick = worldTime;
+        this.applyPlayerMove(playerWrapper);
+
+        // ChunkGc must not see moves that haven't been applied yet, see below
+        this.updateMovedPlayers();
         // With ChunkGc being separate from PlayerCubeMap, there are 2 issues:
         // Problem 0: Sometimes, a chunk can be generated after CubeWatcher's chunk load callback returns with a null
         // but before ChunkGC call. This means that the cube will get unloaded, even when ChunkWatcher is waiting for it.
@@ -716,6 +856,30 @@ public class PlayerCubeMap extends PlayerChunkMap {
         this.chunkGc.tick();
     }
 
+    private void updateMovedPlayers() {
+        if (this.movedPlayers.isEmpty()) {
+            return;
+        }
+        for (PlayerWrapper playerWrapper : this.movedPlayers) {
+            // the player may have moved back into the cube it was in
+            if (playerWrapper.cubePosChanged()) {
+                this.applyPlayerMove(playerWrapper);
+            }
+        }
+        this.movedPlayers.clear();
+    }
+
+    private void applyPlayerMove(PlayerWrapper playerWrapper) {
+        EntityPlayerMP player = playerWrapper.playerEntity;
+        this.updatePlayer(playerWrapper, playerWrapper.getManagedCubePos(), CubePos.fromEntity(player));
+        playerWrapper.updateManagedPos();
+        this.setNeedSort();
+
+        if (!vanillaNetworkHandler.hasCubicChunks(player)) {
+            vanillaNetworkHandler.updatePlayerPosition(this, player, playerWrapper.getManagedCubePos());
+        }
+    }
+
     private void updatePlayer(PlayerWrapper entry, CubePos oldPos, CubePos newPos) {
         getWorldServer().profiler.startSection("updateMovedPlayer");
         Set<CubePos> cubesToRemove = new HashSet<>();
@@ -897,11 +1061,17 @@ public class PlayerCubeMap extends PlayerChunkMap {
     }
 
     void addToUpdateEntry(CubeWatcher cubeWatcher) {
-        this.cubeWatchersToUpdate.add(cubeWatcher);
+        if (!cubeWatcher.queuedForUpdate) {
+            cubeWatcher.queuedForUpdate = true;
+            this.cubeWatchersToUpdate.add(cubeWatcher);
+        }
     }
 
     void addToUpdateEntry(ColumnWatcher columnWatcher) {
-        this.columnWatchersToUpdate.add(columnWatcher);
+        if (!columnWatcher.queuedForUpdate) {
+            columnWatcher.queuedForUpdate = true;
+            this.columnWatchersToUpdate.add(columnWatcher);
+        }
     }
 
     // CHECKED: 1.10.2-12.18.1.2092
@@ -918,7 +1088,7 @@ public class PlayerCubeMap extends PlayerChunkMap {
         cubeWatcher.updateInhabitedTime();
         CubeWatcher removed = this.cubeWatchers.remove(cubePos.getX(), cubePos.getY(), cubePos.getZ());
         assert removed == cubeWatcher : "Removed unexpected cube watcher";
-        this.cubeWatchersToUpdate.remove(cubeWatcher);
+        cubeWatcher.queuedForUpdate = false;
         this.cubesToGenerate.remove(cubeWatcher);
         this.cubesToSendToClients.remove(cubeWatcher);
         if (cubeWatcher.getCube() != null) {
@@ -942,7 +1112,7 @@ public class PlayerCubeMap extends PlayerChunkMap {
         this.columnWatchers.remove(pos.x, pos.z);
         this.columnsToGenerate.remove(entry);
         this.columnsToSendToClients.remove(entry);
-        this.columnWatchersToUpdate.remove(entry);
+        entry.queuedForUpdate = false;
     }
 
     public void scheduleSendCubeToPlayer(Cube cube, EntityPlayerMP player) {
@@ -953,6 +1123,14 @@ public class PlayerCubeMap extends PlayerChunkMap {
         cubesToSend.remove(player, cube);
     }
 
+    /**
+     * Cubes can stay queued for a few ticks when the player's connection is slow. Until the cube is sent, the player doesn't need block
+     * updates for it, as they are included in the cube, and other packets for the cube have to wait until it's sent.
+     */
+    boolean isCubeSendPending(Cube cube, EntityPlayerMP player) {
+        return cubesToSend.containsEntry(player, cube);
+    }
+
     @Nullable public CubeWatcher getCubeWatcher(CubePos pos) {
         return this.cubeWatchers.get(pos.getX(), pos.getY(), pos.getZ());
     }
@@ -968,10 +1146,17 @@ public class PlayerCubeMap extends PlayerChunkMap {
     private static final class PlayerWrapper {
 
         final EntityPlayerMP playerEntity;
+        final PlayerSendBudget sendBudget;
         private double managedPosY;
+        // the world time of the last move applied by updateMovingPlayer
+        long lastMoveTick = Long.MIN_VALUE;
+        // cubes visible from the player's cube, only computed when cullOccludedCubes is enabled
+        @Nullable OcclusionCubeSelector.VisibilityMap visibility;
+        long visibilityTick;
 
         PlayerWrapper(EntityPlayerMP player) {
             this.playerEntity = player;
+            this.sendBudget = new PlayerSendBudget(player);
         }
 
         void updateManagedPos() {
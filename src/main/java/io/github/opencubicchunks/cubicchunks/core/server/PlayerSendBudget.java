@@ -0,0 +1,98 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2021 OpenCubicChunks
+ *  Copyright (c) 2015-2021 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server;
+
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.network.NetHandlerPlayServer;
+import net.minecraft.network.NetworkManager;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Decides how many cubes can be sent to a player each tick, based on how fast the player's connection has been sending the data written to it.
+ * <p>
+ * The limit grows while the channel's outbound buffer empties between ticks, stays the same while data is still waiting to be written, and is
+ * halved when the buffer fills up enough for the channel to become unwritable. Nothing is sent while the channel is unwritable.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class PlayerSendBudget {
+
+    private static final int MIN_CUBES_PER_TICK = 1;
+    private static final int INITIAL_CUBES_PER_TICK = 16;
+
+    private final EntityPlayerMP player;
+    private int cubesPerTick = INITIAL_CUBES_PER_TICK;
+
+    PlayerSendBudget(EntityPlayerMP player) {
+        this.player = player;
+    }
+
+    /**
+     * @return the current limit of cubes per tick, without updating it
+     */
+    int getCubesPerTick() {
+        return Math.min(this.cubesPerTick, CubicChunksConfig.cubesToSendPerTick);
+    }
+
+    /**
+     * Updates the limit from the state of the player's connection, should be called once per tick before sending cubes to the player.
+     *
+     * @return how many cubes can be sent to the player in this tick
+     */
+    int update() {
+        int max = CubicChunksConfig.cubesToSendPerTick;
+        Channel channel = channel();
+        if (channel == null) { // not a real connection
+            return max;
+        }
+        if (!channel.isWritable()) {
+            this.cubesPerTick = Math.max(MIN_CUBES_PER_TICK, this.cubesPerTick / 2);
+            return 0;
+        }
+        ChannelOutboundBuffer outboundBuffer = channel.unsafe().outboundBuffer();
+        long pendingBytes = outboundBuffer == null ? 0 : outboundBuffer.totalPendingWriteBytes();
+        if (pendingBytes <= channel.config().getWriteBufferLowWaterMark()) {
+            // the connection kept up with what has been sent so far
+            this.cubesPerTick = (int) Math.min(max, this.cubesPerTick * 2L);
+        }
+        return this.getCubesPerTick();
+    }
+
+    @Nullable
+    private Channel channel() {
+        NetHandlerPlayServer connection = this.player.connection;
+        if (connection == null) {
+            return null;
+        }
+        NetworkManager netManager = connection.netManager;
+        return netManager == null ? null : netManager.channel();
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2021 OpenCubicChunks
+ *  Copyright (c) 2015-2021 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Box;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.world.ICubeProviderServer.Requirement;
+import io.github.opencubicchunks.cubicchunks.api.worldgen.ICubeGenerator;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.BlankCube;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.gen.IChunkGenerator;
+import net.minecraftforge.fml.common.registry.GameRegistry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Fully populates many cubes at once. The population requirements of all the cubes are merged first, so that every cube is generated and populated
+ * at most once, even if it's needed by many of them.
+ * <p>
+ * Generating a cube may fail when the generator isn't ready yet. Such cubes aren't checked again for the rest of the tick, so the cubes waiting
+ * for them don't keep retrying.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class PopulationScheduler {
+
+    private final CubeProviderServer cubeProvider;
+    private final ICubeGenerator cubeGen;
+    private final WorldServer world;
+    private final IChunkGenerator chunkGenerator;
+
+    // cubes that couldn't be generated in the tick notReadyTick
+    private final Set<CubePos> notReady = new HashSet<>();
+    private long notReadyTick = Long.MIN_VALUE;
+
+    PopulationScheduler(CubeProviderServer cubeProvider, ICubeGenerator cubeGen, WorldServer world, IChunkGenerator chunkGenerator) {
+        this.cubeProvider = cubeProvider;
+        this.cubeGen = cubeGen;
+        this.world = world;
+        this.chunkGenerator = chunkGenerator;
+    }
+
+    /**
+     * Tries to fully populate the given cubes, generating and populating the cubes around them as needed. Cubes which can't be fully populated yet
+     * are left as they are, check {@link Cube#isFullyPopulated()} to find out which ones succeeded.
+     *
+     * @param cubes the cubes to fully populate
+     * @param forceNow whether generating cubes should be forced, see {@link CubeProviderServer#getCubeNow(int, int, int, Requirement)}
+     * @param stopTime the {@link System#nanoTime()} after which no more cubes are generated or populated, ignored if forceNow is true
+     */
+    void populate(Collection<Cube> cubes, boolean forceNow, long stopTime) {
+        long tick = this.world.getTotalWorldTime();
+        if (tick != this.notReadyTick) {
+            this.notReady.clear();
+            this.notReadyTick = tick;
+        }
+
+        // all cubes that have to be populated, with the Y coordinate of the cube that needs them for vanilla generator compatibility
+        Map<CubePos, Integer> toPopulate = new LinkedHashMap<>();
+        Map<Cube, Box> fullPopulationBoxes = new LinkedHashMap<>();
+        for (Cube cube : cubes) {
+            if (cube.isFullyPopulated()) {
+                continue;
+            }
+            Box box = withVanillaCompatibility(this.cubeGen.getFullPopulationRequirements(cube), cube.getY());
+            fullPopulationBoxes.put(cube, box);
+            box.forEachPoint((x, y, z) -> toPopulate.putIfAbsent(new CubePos(cube.getX() + x, cube.getY() + y, cube.getZ() + z), cube.getY()));
+        }
+        if (fullPopulationBoxes.isEmpty()) {
+            return;
+        }
+
+        // generated cubes, null for cubes that couldn't be generated
+        Map<CubePos, Cube> generated = new HashMap<>();
+        Map<Cube, List<CubePos>> pregenerationRequirements = new LinkedHashMap<>();
+        for (Map.Entry<CubePos, Integer> entry : toPopulate.entrySet()) {
+            // generation is charged against the same time budget as population, cubes not reached are generated in a later tick
+            if (!forceNow && System.nanoTime() > stopTime) {
+                break;
+            }
+            Cube cube = this.generate(entry.getKey(), forceNow, generated);
+            if (cube == null || cube.isPopulated()) {
+                continue;
+            }
+            Box box = withVanillaCompatibility(this.cubeGen.getPopulationPregenerationRequirements(cube), entry.getValue());
+            List<CubePos> required = new ArrayList<>();
+            box.forEachPoint((x, y, z) -> required.add(new CubePos(cube.getX() + x, cube.getY() + y, cube.getZ() + z)));
+            pregenerationRequirements.put(cube, required);
+        }
+
+        for (Map.Entry<Cube, List<CubePos>> entry : pregenerationRequirements.entrySet()) {
+            if (!forceNow && System.nanoTime() > stopTime) {
+                break;
+            }
+            Cube cube = entry.getKey();
+            if (!this.generateAll(entry.getValue(), forceNow, generated)) {
+                continue;
+            }
+            // a check for populators that populate more than one cube (vanilla compatibility generator)
+            if (!cube.isPopulated()) {
+                this.cubeGen.populate(cube);
+                cube.setPopulated(true);
+            }
+        }
+
+        fullPopulationBoxes.forEach((cube, box) -> {
+            boolean populated = box.allMatch((x, y, z) -> {
+                Cube populatedCube = generated.get(new CubePos(cube.getX() + x, cube.getY() + y, cube.getZ() + z));
+                return populatedCube != null && populatedCube.isPopulated();
+            });
+            if (!populated) {
+                return;
+            }
+            if (CubicChunksConfig.useVanillaChunkWorldGenerators) {
+                Box.Mutable columns = box.asMutable();
+                columns.setY1(0);
+                columns.setY2(0);
+                columns.forEachPoint((x, y, z) ->
+                        GameRegistry.generateWorld(cube.getX() + x, cube.getZ() + z, this.world, this.chunkGenerator, this.world.getChunkProvider()));
+            }
+            cube.setFullyPopulated(true);
+        });
+    }
+
+    private boolean generateAll(List<CubePos> positions, boolean forceNow, Map<CubePos, Cube> generated) {
+        for (CubePos pos : positions) {
+            if (this.generate(pos, forceNow, generated) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Nullable
+    private Cube generate(CubePos pos, boolean forceNow, Map<CubePos, Cube> generated) {
+        if (generated.containsKey(pos)) {
+            return generated.get(pos);
+        }
+        Cube cube = null;
+        if (forceNow || !this.notReady.contains(pos)) {
+            cube = this.cubeProvider.getCube(pos.getX(), pos.getY(), pos.getZ(), Requirement.GENERATE, forceNow);
+            if (cube instanceof BlankCube) {
+                cube = null;
+            }
+            if (cube == null && !forceNow) {
+                this.notReady.add(pos);
+            }
+        }
+        generated.put(pos, cube);
+        return cube;
+    }
+
+    private static Box withVanillaCompatibility(Box box, int cubeY) {
+        if (CubicChunksConfig.useVanillaChunkWorldGenerators && cubeY >= 0 && cubeY < 16) {
+            return new Box(
+                    0, -cubeY, 0,
+                    0, 16 - cubeY - 1, 0
+            ).add(box);
+        }
+        return box;
+    }
+}
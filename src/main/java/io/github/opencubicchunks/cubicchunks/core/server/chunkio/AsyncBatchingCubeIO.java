@@ -27,7 +27,9 @@ package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.api.world.storage.ICubicStorage;
+import io.github.opencubicchunks.cubicchunks.api.world.storage.StorageFormatProviderBase;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.server.chunkio.async.forge.AsyncWorldIOExecutor;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
@@ -37,39 +39,93 @@ import net.minecraft.util.datafix.FixTypes;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
-import net.minecraft.world.storage.IThreadedFileIO;
-import net.minecraft.world.storage.ThreadedFileIOBase;
 import net.minecraftforge.fml.common.FMLCommonHandler;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static com.google.common.base.Preconditions.*;
 
 /**
- * Implementation of {@link ICubeIO} which internally batches cubes/columns together, and forwards them along to a {@link ICubicStorage} on the I/O thread.
+ * Implementation of {@link ICubeIO} which internally batches cubes/columns together, and forwards them along to a {@link ICubicStorage} on a dedicated
+ * save thread.
+ * <p>
+ * The number of queued cubes is bounded by {@link CubicChunksConfig#maxQueuedCubeSaves}: once it is exceeded, {@link #saveCube(Cube)} waits for the save
+ * thread to catch up instead of letting the queue grow without limit.
  *
  * @author DaPorkchop_
  */
 public class AsyncBatchingCubeIO implements ICubeIO {
+    /**
+     * The maximum number of columns or cubes written in a single batch. Bounding it allows the backpressure on the world thread to be released gradually
+     * instead of only after the whole queue has been written.
+     */
+    private static final int MAX_BATCH_SIZE = 4096;
+    private static final long FAILED_WRITE_RETRY_DELAY_MS = 1000L;
+
+    // each instance runs at most one drain task at a time, so this only grows to the number of worlds saving at once
+    private static final ExecutorService SAVE_EXECUTOR;
+
+    static {
+        final AtomicInteger threadCounter = new AtomicInteger();
+        SAVE_EXECUTOR = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                r -> {
+                    Thread thread = new Thread(r, "Cubic Chunks Save Thread #" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+    }
+
     protected final ReadWriteLock lock = new ReentrantReadWriteLock();
 
     protected final World world;
     protected final ICubicStorage storage;
+    protected final boolean binaryCubeData;
 
     protected final Map<ChunkPos, NBTTagCompound> pendingColumns = new ConcurrentHashMap<>();
     protected final Map<CubePos, NBTTagCompound> pendingCubes = new ConcurrentHashMap<>();
 
     protected volatile boolean open = true;
 
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final Queue<CompletableFuture<Void>> drainWaiters = new ConcurrentLinkedQueue<>();
+    // notified by the save thread after every batch, used to wake up the world thread when it's waiting for the queue to shrink
+    private final Object queueShrunk = new Object();
+    private volatile boolean lastWriteFailed;
+
     public AsyncBatchingCubeIO(World world, ICubicStorage storage) throws IOException {
+        this(world, storage, false);
+    }
+
+    /**
+     * @param binaryCubeData whether cube block, light and biome data should be passed to the storage in binary form, see
+     * {@link StorageFormatProviderBase#usesBinaryCubeData()}
+     */
+    public AsyncBatchingCubeIO(World world, ICubicStorage storage, boolean binaryCubeData) throws IOException {
         this.world = Objects.requireNonNull(world, "world");
         this.storage = Objects.requireNonNull(storage, "storage");
+        this.binaryCubeData = binaryCubeData;
     }
 
     protected void ensureOpen() {
@@ -153,6 +209,31 @@ public class AsyncBatchingCubeIO implements ICubeIO {
         }
     }
 
+    @Override
+    public Map<CubePos, NBTTagCompound> loadCubeNbtBatch(Set<CubePos> positions) throws IOException {
+        this.lock.readLock().lock();
+        try {
+            this.ensureOpen();
+
+            Map<CubePos, NBTTagCompound> result = new HashMap<>(positions.size());
+            Set<CubePos> toRead = new HashSet<>(positions.size());
+            for (CubePos pos : positions) {
+                NBTTagCompound nbt = this.pendingCubes.get(pos);
+                if (nbt != null) {
+                    result.put(pos, nbt);
+                } else { //cube isn't cached, forward request on to storage
+                    toRead.add(pos);
+                }
+            }
+            if (!toRead.isEmpty()) {
+                result.putAll(this.storage.readBatch(new ICubicStorage.PosBatch(Collections.emptySet(), toRead)).cubes);
+            }
+            return result;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
     @Override
     public void saveColumn(Chunk column) {
         this.lock.readLock().lock();
@@ -168,8 +249,8 @@ public class AsyncBatchingCubeIO implements ICubeIO {
             this.pendingColumns.put(column.getPos(), IONbtWriter.write(column));
             column.setModified(false);
 
-            // signal the IO thread to process the save queue
-            ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
+            // signal the save thread to process the save queue
+            this.scheduleDrain();
         } finally {
             this.lock.readLock().unlock();
         }
@@ -186,16 +267,39 @@ public class AsyncBatchingCubeIO implements ICubeIO {
 
             // NOTE: this function blocks the world thread, so make it fast
 
-            this.pendingCubes.put(cube.getCoords(), IONbtWriter.write(cube));
+            this.pendingCubes.put(cube.getCoords(), IONbtWriter.write(cube, this.binaryCubeData));
             cube.markSaved();
 
-            // signal the IO thread to process the save queue
-            ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
+            // signal the save thread to process the save queue
+            this.scheduleDrain();
+
+            this.awaitQueueBelowLimit();
         } finally {
             this.lock.readLock().unlock();
         }
     }
 
+    /**
+     * Blocks the calling thread while more than {@link CubicChunksConfig#maxQueuedCubeSaves} cubes are waiting to be written. Gives up waiting if the
+     * last write failed, as the queue isn't going to shrink in that case and stalling the server wouldn't help.
+     */
+    private void awaitQueueBelowLimit() {
+        int limit = CubicChunksConfig.maxQueuedCubeSaves;
+        if (limit <= 0 || this.pendingCubes.size() <= limit) {
+            return;
+        }
+        synchronized (this.queueShrunk) {
+            while (this.pendingCubes.size() > limit && !this.lastWriteFailed) {
+                try {
+                    this.queueShrunk.wait(100L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
     @Override
     public int getPendingColumnCount() {
         this.lock.readLock().lock();
@@ -227,17 +331,32 @@ public class AsyncBatchingCubeIO implements ICubeIO {
             this.ensureOpen();
 
             //ensure write queue is empty
-            this.drainQueueBlocking();
+            this.drainQueue().join();
 
             //flush storage
             this.storage.flush();
-        } catch (InterruptedException e) {
-            CubicChunks.LOGGER.catching(e);
         } finally {
             this.lock.writeLock().unlock();
         }
     }
 
+    /**
+     * Writes all currently queued columns and cubes and flushes the storage, without blocking the calling thread. Unlike {@link #flush()}, this doesn't
+     * stop further saves from being queued in the meantime, so the returned future may complete later than expected if saving continues.
+     *
+     * @return a future which is completed once the queue has been drained and the storage has been flushed
+     */
+    public CompletableFuture<Void> flushAsync() {
+        this.ensureOpen();
+        return this.drainQueue().thenRunAsync(() -> {
+            try {
+                this.storage.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, SAVE_EXECUTOR);
+    }
+
     @Override
     public void close() throws IOException {
         // shutdown loading executor first
@@ -250,47 +369,65 @@ public class AsyncBatchingCubeIO implements ICubeIO {
             this.ensureOpen();
 
             //ensure write queue is empty
-            this.drainQueueBlocking();
+            this.drainQueue().join();
 
             //close storage
             this.storage.close();
 
             //mark self as closed AFTER finishing everything else
             this.open = false;
-        } catch (InterruptedException e) {
-            CubicChunks.LOGGER.catching(e);
         } finally {
             this.lock.writeLock().unlock();
         }
     }
 
     /**
-     * Blocks the calling thread until the write queues have been completely drained.
-     * @throws InterruptedException if the thread has been interrupted
+     * @return a future which is completed once both write queues are empty
      */
-    protected void drainQueueBlocking() throws InterruptedException {
-        //this has to submit itself to the I/O thread again, and also run in a loop, in order to avoid a potential race condition caused by the fact that ThreadedFileIOBase
-        // is incredibly stupid. don't you think that if you're going to make an ASYNCHRONOUS executor, that you'd ensure that the code is ACTUALLY thread-safe? well,
-        // if you're mojang, apparently you don't.
+    protected CompletableFuture<Void> drainQueue() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        this.drainWaiters.add(future);
+        //always make sure a drain task will run after the waiter was added, even if the queues are already empty, as that's what completes the waiter
+        this.scheduleDrain();
+        return future;
+    }
+
+    private void scheduleDrain() {
+        if (this.drainScheduled.compareAndSet(false, true)) {
+            SAVE_EXECUTOR.execute(this::runDrainTask);
+        }
+    }
 
-        do {
-            ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
+    private void runDrainTask() {
+        try {
+            while (this.writeNextIO()) {
+                if (this.lastWriteFailed) {
+                    Thread.sleep(FAILED_WRITE_RETRY_DELAY_MS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            //this has to be cleared before checking the queues, otherwise anything queued in between would be left there until the next save
+            this.drainScheduled.set(false);
+        }
 
-            ThreadedFileIOBase.getThreadedIOInstance().waitForFinish();
-        } while (!this.pendingColumns.isEmpty() || !this.pendingCubes.isEmpty());
+        if (this.pendingColumns.isEmpty() && this.pendingCubes.isEmpty()) {
+            CompletableFuture<Void> waiter;
+            while ((waiter = this.drainWaiters.poll()) != null) {
+                waiter.complete(null);
+            }
+        } else {
+            this.scheduleDrain();
+        }
     }
 
     @Override
     public boolean writeNextIO() {
         try {
-            //take a snapshot of both queues
-
-            //unfortunately we can't use putAll() (or the copy constructor which delegates to putAll()), because the implementation doesn't actually bother to check
-            // for Iterator#hasNext(), which is kind of important in our case where the pendingCubes/Columns map could be modified at any time...
-            Map<ChunkPos, NBTTagCompound> columnsSnapshot = new Object2ObjectOpenHashMap<>(this.pendingColumns.size());
-            this.pendingColumns.forEach(columnsSnapshot::put);
-            Map<CubePos, NBTTagCompound> cubesSnapshot = new Object2ObjectOpenHashMap<>(this.pendingCubes.size());
-            this.pendingCubes.forEach(cubesSnapshot::put);
+            //take a snapshot of both queues, limited to MAX_BATCH_SIZE entries each
+            Map<ChunkPos, NBTTagCompound> columnsSnapshot = snapshot(this.pendingColumns);
+            Map<CubePos, NBTTagCompound> cubesSnapshot = snapshot(this.pendingCubes);
 
             //forward all tasks to the storage at once
             this.storage.writeBatch(new ICubicStorage.NBTBatch(Collections.unmodifiableMap(columnsSnapshot), Collections.unmodifiableMap(cubesSnapshot)));
@@ -298,13 +435,31 @@ public class AsyncBatchingCubeIO implements ICubeIO {
             //remove from queue (using remove(key, value) in order to avoid removing entries which have been modified since the snapshot was taken)
             columnsSnapshot.forEach(this.pendingColumns::remove);
             cubesSnapshot.forEach(this.pendingCubes::remove);
+            this.lastWriteFailed = false;
         } catch (IOException e) {
-            e.printStackTrace();
+            CubicChunks.LOGGER.catching(e);
+            this.lastWriteFailed = true;
+        } finally {
+            synchronized (this.queueShrunk) {
+                this.queueShrunk.notifyAll();
+            }
         }
 
         return !this.pendingColumns.isEmpty() || !this.pendingCubes.isEmpty();
     }
 
+    private static <K> Map<K, NBTTagCompound> snapshot(Map<K, NBTTagCompound> pending) {
+        //unfortunately we can't use putAll() (or the copy constructor which delegates to putAll()), because the implementation doesn't actually bother to check
+        // for Iterator#hasNext(), which is kind of important in our case where the pendingCubes/Columns map could be modified at any time...
+        Map<K, NBTTagCompound> snapshot = new Object2ObjectOpenHashMap<>(Math.min(pending.size(), MAX_BATCH_SIZE));
+        Iterator<Map.Entry<K, NBTTagCompound>> it = pending.entrySet().iterator();
+        while (it.hasNext() && snapshot.size() < MAX_BATCH_SIZE) {
+            Map.Entry<K, NBTTagCompound> entry = it.next();
+            snapshot.put(entry.getKey(), entry.getValue());
+        }
+        return snapshot;
+    }
+
     // parsing methods
     // these methods don't use the instance state for anything meaningful, so we can just let them do their thing without worrying about locks and whatnot
 
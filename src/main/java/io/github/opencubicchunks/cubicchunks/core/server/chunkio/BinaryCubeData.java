@@ -0,0 +1,289 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2021 OpenCubicChunks
+ *  Copyright (c) 2015-2021 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.core.util.UniformNibbleArrays;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraftforge.common.util.Constants;
+import net.minecraftforge.fml.common.network.ByteBufUtils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Binary encoding of the block, light and biome data of a cube, used instead of the vanilla-like "Sections" and "Biomes3D" tags by storage formats which
+ * enable {@link io.github.opencubicchunks.cubicchunks.api.world.storage.StorageFormatProviderBase#usesBinaryCubeData()}.
+ * <p>
+ * Blocks are stored as a palette of block state IDs followed by one palette index per block, which avoids splitting every block state ID into
+ * Blocks/Data/Add/Add2 arrays and back. Everything else (entities, tile entities, scheduled ticks, lighting info and mod data) is still stored as NBT.
+ * <p>
+ * The storage API passes the binary data around in the {@link #TAG_NAME} tag of the cube NBT, but region storage doesn't save it as NBT: the entry starts
+ * with {@link #ENTRY_TAG} and the uncompressed binary data, followed by the remaining NBT written with the codec of the world (see
+ * {@link #writeEntry(NBTTagCompound, CubeCompression, OutputStream)}). Cubes saved without binary data are stored as plain NBT entries.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class BinaryCubeData {
+
+    static final String TAG_NAME = "CubeData";
+
+    /**
+     * First byte of region entries storing binary cube data, can't be the tag of any {@link CubeCompression} codec.
+     */
+    static final int ENTRY_TAG = 0x02;
+
+    private static final int VERSION = 2;
+
+    private static final int FLAG_BLOCKS = 1;
+    private static final int FLAG_SKY_LIGHT = 2;
+    private static final int FLAG_BIOMES = 4;
+    // since version 2, the light array is replaced by its value
+    private static final int FLAG_UNIFORM_BLOCK_LIGHT = 8;
+    private static final int FLAG_UNIFORM_SKY_LIGHT = 16;
+
+    private static final int BLOCK_COUNT = Cube.SIZE * Cube.SIZE * Cube.SIZE;
+    private static final int LIGHT_ARRAY_SIZE = BLOCK_COUNT / 2;
+
+    /**
+     * Writes a cube region entry. Binary cube data in the NBT is written uncompressed in front of the rest of the NBT, which is written with the given
+     * codec, so that it isn't encoded as NBT and compressed again.
+     */
+    static void writeEntry(NBTTagCompound nbt, CubeCompression compression, OutputStream out) throws IOException {
+        NBTTagCompound level = nbt.getCompoundTag("Level");
+        if (!level.hasKey(TAG_NAME, Constants.NBT.TAG_BYTE_ARRAY)) {
+            compression.write(nbt, out);
+            return;
+        }
+        byte[] data = level.getByteArray(TAG_NAME);
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeByte(ENTRY_TAG);
+        dataOut.writeInt(data.length);
+        dataOut.write(data);
+        compression.write(withoutCubeData(nbt, level), dataOut);
+    }
+
+    /**
+     * Reads a cube region entry starting with {@link #ENTRY_TAG}, the binary cube data is put back into the {@link #TAG_NAME} tag.
+     */
+    static NBTTagCompound readEntry(byte[] entry) throws IOException {
+        if (entry.length < 5) {
+            throw new IOException("Truncated binary cube entry");
+        }
+        int length = ByteBuffer.wrap(entry).getInt(1);
+        if (length < 0 || entry.length - 5 <= length) {
+            throw new IOException("Invalid binary cube data length " + length);
+        }
+        byte[] data = Arrays.copyOfRange(entry, 5, 5 + length);
+        NBTTagCompound nbt = CubeCompression.read(Arrays.copyOfRange(entry, 5 + length, entry.length));
+        NBTTagCompound level = nbt.getCompoundTag("Level");
+        level.setByteArray(TAG_NAME, data);
+        nbt.setTag("Level", level);
+        return nbt;
+    }
+
+    // the written NBT may still be returned to readers while it's being saved, so it can't be modified and is copied shallowly instead
+    private static NBTTagCompound withoutCubeData(NBTTagCompound nbt, NBTTagCompound level) {
+        NBTTagCompound levelCopy = new NBTTagCompound();
+        for (String key : level.getKeySet()) {
+            if (!key.equals(TAG_NAME)) {
+                levelCopy.setTag(key, level.getTag(key));
+            }
+        }
+        NBTTagCompound copy = new NBTTagCompound();
+        for (String key : nbt.getKeySet()) {
+            copy.setTag(key, nbt.getTag(key));
+        }
+        copy.setTag("Level", levelCopy);
+        return copy;
+    }
+
+    static byte[] write(Cube cube) {
+        // enough for a cube with a small palette and both light arrays
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.heapBuffer(BLOCK_COUNT + LIGHT_ARRAY_SIZE * 2 + 64);
+        try {
+            write(cube, buf);
+            byte[] data = new byte[buf.readableBytes()];
+            buf.readBytes(data);
+            return data;
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static void write(Cube cube, ByteBuf buf) {
+        ExtendedBlockStorage ebs = cube.getStorage();
+        boolean hasSkyLight = ebs != null && cube.getWorld().provider.hasSkyLight();
+        byte[] biomes = cube.getBiomeArray();
+
+        int blockLight = ebs == null ? -1 : UniformNibbleArrays.getUniformValue(ebs.getBlockLight());
+        int skyLight = !hasSkyLight ? -1 : UniformNibbleArrays.getUniformValue(ebs.getSkyLight());
+
+        buf.writeByte(VERSION);
+        buf.writeByte((ebs != null ? FLAG_BLOCKS : 0) | (hasSkyLight ? FLAG_SKY_LIGHT : 0) | (biomes != null ? FLAG_BIOMES : 0)
+                | (blockLight >= 0 ? FLAG_UNIFORM_BLOCK_LIGHT : 0) | (skyLight >= 0 ? FLAG_UNIFORM_SKY_LIGHT : 0));
+
+        if (ebs != null) {
+            writeBlocks(ebs.getData(), buf);
+            writeNibbleArray(ebs.getBlockLight(), blockLight, buf);
+            if (hasSkyLight) {
+                writeNibbleArray(ebs.getSkyLight(), skyLight, buf);
+            }
+        }
+        if (biomes != null) {
+            ByteBufUtils.writeVarInt(buf, biomes.length, 5);
+            buf.writeBytes(biomes);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void writeBlocks(BlockStateContainer blocks, ByteBuf buf) {
+        Reference2IntOpenHashMap<IBlockState> paletteIndices = new Reference2IntOpenHashMap<>();
+        paletteIndices.defaultReturnValue(-1);
+        List<IBlockState> palette = new ArrayList<>();
+        short[] indices = new short[BLOCK_COUNT];
+
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            IBlockState state = blocks.get(i & 15, i >> 8 & 15, i >> 4 & 15);
+            int index = paletteIndices.getInt(state);
+            if (index < 0) {
+                index = palette.size();
+                paletteIndices.put(state, index);
+                palette.add(state);
+            }
+            indices[i] = (short) index;
+        }
+
+        ByteBufUtils.writeVarInt(buf, palette.size(), 5);
+        for (IBlockState state : palette) {
+            ByteBufUtils.writeVarInt(buf, Block.BLOCK_STATE_IDS.get(state), 5);
+        }
+        if (palette.size() == 1) {
+            return; // all blocks are the same, no need to store indices
+        }
+        if (palette.size() <= 256) {
+            for (short index : indices) {
+                buf.writeByte(index);
+            }
+        } else {
+            for (short index : indices) {
+                buf.writeShort(index);
+            }
+        }
+    }
+
+    static void read(Cube cube, World world, byte[] data) {
+        ByteBuf buf = Unpooled.wrappedBuffer(data);
+
+        int version = buf.readUnsignedByte();
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException(String.format("Cube at %s has unsupported binary data version %d", cube.getCoords(), version));
+        }
+        int flags = buf.readUnsignedByte();
+
+        if ((flags & FLAG_BLOCKS) != 0) {
+            ExtendedBlockStorage ebs = new ExtendedBlockStorage(Coords.cubeToMinBlock(cube.getY()), world.provider.hasSkyLight());
+            readBlocks(ebs.getData(), buf);
+
+            ebs.setBlockLight(readNibbleArray(buf, (flags & FLAG_UNIFORM_BLOCK_LIGHT) != 0));
+            if ((flags & FLAG_SKY_LIGHT) != 0) {
+                NibbleArray skyLight = readNibbleArray(buf, (flags & FLAG_UNIFORM_SKY_LIGHT) != 0);
+                if (world.provider.hasSkyLight()) {
+                    ebs.setSkyLight(skyLight);
+                }
+            }
+
+            ebs.recalculateRefCounts();
+            cube.setStorageFromSave(ebs);
+        }
+        if ((flags & FLAG_BIOMES) != 0) {
+            byte[] biomes = new byte[ByteBufUtils.readVarInt(buf, 5)];
+            buf.readBytes(biomes);
+            cube.setBiomeArray(biomes);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void readBlocks(BlockStateContainer blocks, ByteBuf buf) {
+        IBlockState[] palette = new IBlockState[ByteBufUtils.readVarInt(buf, 5)];
+        for (int i = 0; i < palette.length; i++) {
+            IBlockState state = Block.BLOCK_STATE_IDS.getByValue(ByteBufUtils.readVarInt(buf, 5));
+            // blocks of removed mods have no state anymore, they are replaced with air like vanilla does
+            palette[i] = state == null ? Blocks.AIR.getDefaultState() : state;
+        }
+
+        if (palette.length == 1) {
+            if (palette[0] == Blocks.AIR.getDefaultState()) {
+                return; // a new BlockStateContainer is already filled with air
+            }
+            for (int i = 0; i < BLOCK_COUNT; i++) {
+                blocks.set(i & 15, i >> 8 & 15, i >> 4 & 15, palette[0]);
+            }
+            return;
+        }
+        boolean byteIndices = palette.length <= 256;
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            int index = byteIndices ? buf.readUnsignedByte() : buf.readUnsignedShort();
+            blocks.set(i & 15, i >> 8 & 15, i >> 4 & 15, palette[index]);
+        }
+    }
+
+    private static void writeNibbleArray(NibbleArray array, int uniformValue, ByteBuf buf) {
+        if (uniformValue >= 0) {
+            buf.writeByte(uniformValue);
+        } else {
+            buf.writeBytes(array.getData());
+        }
+    }
+
+    private static NibbleArray readNibbleArray(ByteBuf buf, boolean uniform) {
+        if (uniform) {
+            return UniformNibbleArrays.get(buf.readUnsignedByte() & 0xF);
+        }
+        byte[] data = new byte[LIGHT_ARRAY_SIZE];
+        buf.readBytes(data);
+        return UniformNibbleArrays.of(data);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2021 OpenCubicChunks
+ *  Copyright (c) 2015-2021 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Compression used for column and cube NBT stored in region files.
+ * <p>
+ * Every entry starts with the tag of the codec it was written with, so entries written with different codecs can be mixed within a world and the
+ * codec of a world can be changed without converting it. {@link #GZIP} doesn't write a separate tag, the first byte of the GZIP header serves as its tag,
+ * which keeps it compatible with entries written before codecs were added. Cube entries with binary cube data start with
+ * {@link BinaryCubeData#ENTRY_TAG} instead, and contain an entry written by one of the codecs.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public enum CubeCompression {
+    GZIP(0x1F) {
+        @Override
+        public void write(NBTTagCompound nbt, OutputStream out) throws IOException {
+            CompressedStreamTools.writeCompressed(nbt, out);
+        }
+
+        @Override
+        NBTTagCompound readData(byte[] data) throws IOException {
+            return CompressedStreamTools.readCompressed(new ByteArrayInputStream(data));
+        }
+    },
+    /**
+     * Zlib deflate at the fastest compression level.
+     */
+    DEFLATE_FAST(0x01) {
+        @Override
+        public void write(NBTTagCompound nbt, OutputStream out) throws IOException {
+            out.write(this.tag);
+            Deflater deflater = DEFLATER.get();
+            deflater.reset();
+            DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater, 8192);
+            CompressedStreamTools.write(nbt, new DataOutputStream(deflaterOut));
+            deflaterOut.finish();
+        }
+
+        @Override
+        NBTTagCompound readData(byte[] data) throws IOException {
+            Inflater inflater = INFLATER.get();
+            inflater.reset();
+            return CompressedStreamTools.read(new DataInputStream(new BufferedInputStream(
+                    new InflaterInputStream(new ByteArrayInputStream(data, 1, data.length - 1), inflater))));
+        }
+    },
+    /**
+     * No compression, for storage on filesystems which compress data themselves.
+     */
+    NONE(0x00) {
+        @Override
+        public void write(NBTTagCompound nbt, OutputStream out) throws IOException {
+            out.write(this.tag);
+            CompressedStreamTools.write(nbt, new DataOutputStream(out));
+        }
+
+        @Override
+        NBTTagCompound readData(byte[] data) throws IOException {
+            return CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(data, 1, data.length - 1)));
+        }
+    };
+
+    // deflaters and inflaters hold native memory, so reuse them instead of creating one per entry
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    final int tag;
+
+    CubeCompression(int tag) {
+        this.tag = tag;
+    }
+
+    /**
+     * @return the name this codec is saved as in the world's cubic chunks data
+     */
+    public String getName() {
+        return this.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Encodes and compresses the given NBT, including the codec tag.
+     */
+    public abstract void write(NBTTagCompound nbt, OutputStream out) throws IOException;
+
+    abstract NBTTagCompound readData(byte[] data) throws IOException;
+
+    /**
+     * Decompresses and parses an entry written by any codec.
+     */
+    public static NBTTagCompound read(byte[] data) throws IOException {
+        if (data.length == 0) {
+            throw new IOException("Empty entry");
+        }
+        int tag = data[0] & 0xFF;
+        if (tag == BinaryCubeData.ENTRY_TAG) {
+            return BinaryCubeData.readEntry(data);
+        }
+        for (CubeCompression compression : values()) {
+            if (compression.tag == tag) {
+                return compression.readData(data);
+            }
+        }
+        throw new IOException("Unknown compression codec tag " + tag);
+    }
+
+    @Nullable
+    public static CubeCompression byName(String name) {
+        for (CubeCompression compression : values()) {
+            if (compression.getName().equals(name)) {
+                return compression;
+            }
+        }
+        return null;
+    }
+}
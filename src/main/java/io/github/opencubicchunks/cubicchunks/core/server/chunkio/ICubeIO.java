@@ -27,6 +27,8 @@ package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
 import java.io.Flushable;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.BiConsumer;
 
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
@@ -68,7 +70,13 @@ public interface ICubeIO extends Flushable, AutoCloseable, IThreadedFileIO {
 	void loadColumnSyncPart(PartialData<Chunk> info);
 
 	default PartialData<ICube> loadCubeAsyncPart(Chunk column, int cubeY) throws IOException {
-		PartialData<ICube> data = loadCubeNbt(column, cubeY);
+		return loadCubeAsyncPart(column, cubeY, loadCubeNbt(column, cubeY));
+	}
+
+	/**
+	 * Same as {@link #loadCubeAsyncPart(Chunk, int)}, but with NBT that has already been read, for example by {@link #loadCubeNbtBatch(Set)}.
+	 */
+	default PartialData<ICube> loadCubeAsyncPart(Chunk column, int cubeY, PartialData<ICube> data) {
 		Collection<BiConsumer<? super World, ? super LoadingData<CubePos>>> asyncCallbacks = CubeGeneratorsRegistry.getCubeAsyncLoadingCallbacks();
 		if (!asyncCallbacks.isEmpty()) {
 			CubePos cubePos = new CubePos(column.x, cubeY, column.z);
@@ -82,6 +90,13 @@ public interface ICubeIO extends Flushable, AutoCloseable, IThreadedFileIO {
 
 	PartialData<ICube> loadCubeNbt(Chunk column, int cubeY) throws IOException;
 
+	/**
+	 * Reads the NBT of multiple cubes at once, which allows the storage to coalesce reads from the same region.
+	 *
+	 * @return the NBT of each of the given cubes, or {@code null} for cubes that don't exist
+	 */
+	Map<CubePos, NBTTagCompound> loadCubeNbtBatch(Set<CubePos> positions) throws IOException;
+
 	void loadCubeAsyncPart(PartialData<ICube> info, Chunk column, int cubeY);
 
 	void loadCubeSyncPart(PartialData<ICube> info);
@@ -31,6 +31,7 @@ import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.lighting.ILightingManager;
 import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
+import io.github.opencubicchunks.cubicchunks.core.util.UniformNibbleArrays;
 import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
@@ -46,8 +47,6 @@ import net.minecraft.world.chunk.NibbleArray;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.common.util.Constants;
 
-import java.util.Arrays;
-
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -118,8 +117,12 @@ public class IONbtReader {
         if (cube == null) {
             return null;
         }
-        readBiomes(cube, level);
-        readBlocks(level, world, cube);
+        if (level.hasKey(BinaryCubeData.TAG_NAME, Constants.NBT.TAG_BYTE_ARRAY)) {
+            BinaryCubeData.read(cube, world, level.getByteArray(BinaryCubeData.TAG_NAME));
+        } else {
+            readBiomes(cube, level);
+            readBlocks(level, world, cube);
+        }
 
         return cube;
     }
@@ -200,10 +203,10 @@ public class IONbtReader {
                 ebs.getData().set(x, y, z, Block.BLOCK_STATE_IDS.getByValue(id));
             }
 
-            ebs.setBlockLight(new NibbleArray(nbt.getByteArray("BlockLight")));
+            ebs.setBlockLight(UniformNibbleArrays.of(nbt.getByteArray("BlockLight")));
 
             if (world.provider.hasSkyLight()) {
-                ebs.setSkyLight(new NibbleArray(nbt.getByteArray("SkyLight")));
+                ebs.setSkyLight(UniformNibbleArrays.of(nbt.getByteArray("SkyLight")));
             }
 
             ebs.recalculateRefCounts();
@@ -288,9 +291,9 @@ public class IONbtReader {
             if (storage != null) {
                 //noinspection ConstantConditions
                 if (storage.getSkyLight() != null) {
-                    Arrays.fill(storage.getSkyLight().getData(), (byte) 0);
+                    storage.setSkyLight(UniformNibbleArrays.get(0));
                 }
-                Arrays.fill(storage.getBlockLight().getData(), (byte) 0);
+                storage.setBlockLight(UniformNibbleArrays.get(0));
             }
             cube.setSurfaceTracked(false);
             lightingManager.readFromNbt(cube, new NBTTagCompound());
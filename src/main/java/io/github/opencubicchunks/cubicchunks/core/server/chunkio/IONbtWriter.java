@@ -31,6 +31,7 @@ import io.github.opencubicchunks.cubicchunks.api.world.IHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.lighting.ILightingManager;
+import io.github.opencubicchunks.cubicchunks.core.util.UniformNibbleArrays;
 import io.github.opencubicchunks.cubicchunks.core.world.ClientHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
@@ -81,6 +82,13 @@ class IONbtWriter {
     }
 
     static NBTTagCompound write(final Cube cube) {
+        return write(cube, false);
+    }
+
+    /**
+     * @param binaryCubeData whether to store block, light and biome data using {@link BinaryCubeData} instead of the "Sections" and "Biomes3D" tags
+     */
+    static NBTTagCompound write(final Cube cube, boolean binaryCubeData) {
         NBTTagCompound cubeNbt = new NBTTagCompound();
         //Added to preserve compatibility with vanilla NBT chunk format.
         NBTTagCompound level = new NBTTagCompound();
@@ -88,12 +96,22 @@ class IONbtWriter {
         cubeNbt.setInteger("DataVersion", FMLCommonHandler.instance().getDataFixer().version);
         FMLCommonHandler.instance().getDataFixer().writeVersionData(cubeNbt);
         writeBaseCube(cube, level);
-        writeBlocks(cube, level);
+        if (cube.getStorage() != null) {
+            // light updates are processed before saving, so this is where the light arrays that ended up uniform can be shared
+            UniformNibbleArrays.deduplicate(cube.getStorage());
+        }
+        if (binaryCubeData) {
+            level.setByteArray(BinaryCubeData.TAG_NAME, BinaryCubeData.write(cube));
+        } else {
+            writeBlocks(cube, level);
+        }
         writeEntities(cube, level);
         writeTileEntities(cube, level);
         writeScheduledTicks(cube, level);
         writeLightingInfo(cube, level);
-        writeBiomes(cube, level);
+        if (!binaryCubeData) {
+            writeBiomes(cube, level);
+        }
         writeModData(cube, cubeNbt);
         return cubeNbt;
     }
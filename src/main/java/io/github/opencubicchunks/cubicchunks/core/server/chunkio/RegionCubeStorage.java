@@ -24,6 +24,8 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
 
+import cubicchunks.regionlib.api.region.key.IKey;
+import cubicchunks.regionlib.api.region.key.RegionKey;
 import cubicchunks.regionlib.impl.EntryLocation2D;
 import cubicchunks.regionlib.impl.EntryLocation3D;
 import cubicchunks.regionlib.impl.SaveCubeColumns;
@@ -41,29 +43,88 @@ import io.github.opencubicchunks.cubicchunks.core.server.chunkio.region.ShadowPa
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufOutputStream;
 import io.netty.buffer.UnpooledByteBufAllocator;
-import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.math.ChunkPos;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Implementation of {@link ICubicStorage} for the Cubic Chunks' standard Anvil3d storage format.
  */
 public class RegionCubeStorage implements ICubicStorage {
-    private static SaveCubeColumns saveForPath(Path path) throws IOException {
+    // how many region writes per thread may be queued before writeBatch blocks
+    private static final int QUEUED_REGION_WRITES_PER_THREAD = 4;
+
+    private static ExecutorService regionWriteExecutor;
+
+    private static synchronized ExecutorService regionWriteExecutor() {
+        if (regionWriteExecutor == null) {
+            AtomicInteger threadCounter = new AtomicInteger();
+            regionWriteExecutor = Executors.newFixedThreadPool(CubicChunksConfig.regionWriteThreads, r -> {
+                Thread thread = new Thread(r, "Cubic Chunks Region Writer #" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return regionWriteExecutor;
+    }
+
+    private static ScheduledExecutorService compactionExecutor;
+
+    private static synchronized ScheduledExecutorService compactionExecutor() {
+        if (compactionExecutor == null) {
+            compactionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "Cubic Chunks Region Compactor");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        }
+        return compactionExecutor;
+    }
+
+    // cubes are stored column by column, so that cubes above each other are next to each other in the file
+    private static final Comparator<EntryLocation3D> CUBE_COMPACTION_ORDER = Comparator.comparingInt(EntryLocation3D::getEntryX)
+            .thenComparingInt(EntryLocation3D::getEntryZ)
+            .thenComparingInt(EntryLocation3D::getEntryY);
+    private static final Comparator<EntryLocation2D> COLUMN_COMPACTION_ORDER = Comparator.comparingInt(EntryLocation2D::getEntryX)
+            .thenComparingInt(EntryLocation2D::getEntryZ);
+
+    // only compact regions whose file is at least this much larger than the data in it
+    private static final double COMPACTION_MIN_FRAGMENTATION = 1.5;
+
+    private static SaveCubeColumns saveForPath(Path path, Set<ShadowPagingRegion<?>> openRegions) throws IOException {
         if (CubicChunksConfig.useShadowPagingIO) {
             Utils.createDirectories(path);
 
@@ -76,12 +137,14 @@ public class RegionCubeStorage implements ICubicStorage {
             @SuppressWarnings("unchecked") SaveSection2D section2d = new SaveSection2D(
                     new SharedCachedRegionProvider<>(
                             new SimpleRegionProvider<>(new EntryLocation2D.Provider(), part2d, (keyProv, r) ->
-                                    ShadowPagingRegion.<EntryLocation2D>builder()
+                                    track(openRegions, ShadowPagingRegion.<EntryLocation2D>builder()
                                             .setDirectory(part2d)
                                             .setRegionKey(r)
                                             .setKeyProvider(keyProv)
                                             .setSectorSize(512)
-                                            .build(),
+                                            .setMemoryMappedReads(CubicChunksConfig.memoryMappedRegionReads)
+                                            .setCompactionOrder(COLUMN_COMPACTION_ORDER)
+                                            .build()),
                                     (dir, key) -> Files.exists(dir.resolve(key.getRegionKey().getName()))
                             )
                     ),
@@ -94,12 +157,14 @@ public class RegionCubeStorage implements ICubicStorage {
             @SuppressWarnings("unchecked") SaveSection3D section3d = new SaveSection3D(
                     new SharedCachedRegionProvider<>(
                             new SimpleRegionProvider<>(new EntryLocation3D.Provider(), part3d, (keyProv, r) ->
-                                    ShadowPagingRegion.<EntryLocation3D>builder()
+                                    track(openRegions, ShadowPagingRegion.<EntryLocation3D>builder()
                                             .setDirectory(part3d)
                                             .setRegionKey(r)
                                             .setKeyProvider(keyProv)
                                             .setSectorSize(512)
-                                            .build(),
+                                            .setMemoryMappedReads(CubicChunksConfig.memoryMappedRegionReads)
+                                            .setCompactionOrder(CUBE_COMPACTION_ORDER)
+                                            .build()),
                                     (dir, key) -> Files.exists(dir.resolve(key.getRegionKey().getName()))
                             )
                     ),
@@ -116,49 +181,213 @@ public class RegionCubeStorage implements ICubicStorage {
         }
     }
 
+    private static <R extends ShadowPagingRegion<?>> R track(Set<ShadowPagingRegion<?>> openRegions, R region) {
+        openRegions.add(region);
+        return region;
+    }
+
     private final Path path;
+    private final CubeCompression compression;
     private SaveCubeColumns save;
 
+    // entries handed to the region write pipeline that may not be on disk yet, so that reads see the latest data
+    private final Map<ChunkPos, NBTTagCompound> inFlightColumns = new ConcurrentHashMap<>();
+    private final Map<CubePos, NBTTagCompound> inFlightCubes = new ConcurrentHashMap<>();
+    // entries whose write failed in the region write pipeline, retried with the next batch
+    private final Map<ChunkPos, NBTTagCompound> failedColumns = new ConcurrentHashMap<>();
+    private final Map<CubePos, NBTTagCompound> failedCubes = new ConcurrentHashMap<>();
+    // the last queued write for each region, writes to the same region are chained so that they happen in order
+    private final Map<RegionKey, CompletableFuture<Void>> regionWriteTails = new ConcurrentHashMap<>();
+    private final Semaphore queuedRegionWrites = new Semaphore(Math.max(1, CubicChunksConfig.regionWriteThreads * QUEUED_REGION_WRITES_PER_THREAD));
+
+    // shadow paging regions opened by this storage, regions evicted from the region cache are closed and dropped
+    private final Set<ShadowPagingRegion<?>> openRegions = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private final Object compactionLock = new Object();
+    private final AtomicLong compactionReclaimedBytes = new AtomicLong();
+    private volatile boolean closing;
+    private ScheduledFuture<?> compactionTask;
+
     public RegionCubeStorage(Path path) throws IOException {
+        this(path, CubeCompression.GZIP);
+    }
+
+    /**
+     * @param compression the codec used for newly written entries, existing entries can be read regardless of the codec they were written with
+     */
+    public RegionCubeStorage(Path path, CubeCompression compression) throws IOException {
         this.path = Objects.requireNonNull(path, "path");
-        this.save = saveForPath(path);
+        this.compression = Objects.requireNonNull(compression, "compression");
+        this.save = saveForPath(path, this.openRegions);
+        if (CubicChunksConfig.useShadowPagingIO && CubicChunksConfig.regionCompactionIntervalMinutes > 0) {
+            long interval = CubicChunksConfig.regionCompactionIntervalMinutes;
+            this.compactionTask = compactionExecutor().scheduleWithFixedDelay(this::compactRegions, interval, interval, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * @return the total number of bytes freed by compacting region files since this storage was opened
+     */
+    public long getCompactionReclaimedBytes() {
+        return this.compactionReclaimedBytes.get();
+    }
+
+    /**
+     * Compacts all open region files which are fragmented enough, see {@link ShadowPagingRegion#compact(ShadowPagingRegion.CompactionThrottle)}.
+     */
+    private void compactRegions() {
+        synchronized (this.compactionLock) {
+            List<ShadowPagingRegion<?>> regions;
+            synchronized (this.openRegions) {
+                regions = new ArrayList<>(this.openRegions);
+            }
+            long reclaimed = 0L;
+            int compacted = 0;
+            for (ShadowPagingRegion<?> region : regions) {
+                if (this.closing) {
+                    return;
+                }
+                try {
+                    if (!region.isOpen() || region.getFileSize() < region.getUsedBytes() * COMPACTION_MIN_FRAGMENTATION) {
+                        continue;
+                    }
+                    reclaimed += region.compact(this::throttleCompaction);
+                    compacted++;
+                } catch (IOException | RuntimeException e) {
+                    // the region may have been closed by the region cache or the storage while compacting it, it will be compacted again later
+                    CubicChunks.LOGGER.debug("Couldn't compact region " + region.getRegionKey().getName() + " in " + this.path, e);
+                }
+            }
+            if (compacted > 0) {
+                long total = this.compactionReclaimedBytes.addAndGet(reclaimed);
+                CubicChunks.LOGGER.info("Compacted {} region files in {}, freed {} KiB ({} KiB in total)", compacted, this.path, reclaimed >> 10, total >> 10);
+            }
+        }
+    }
+
+    private void throttleCompaction(long bytes) throws IOException {
+        if (this.closing) {
+            throw new InterruptedIOException("storage is closing");
+        }
+        try {
+            Thread.sleep(bytes * 1000L / CubicChunksConfig.regionCompactionMaxBytesPerSecond);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
     }
 
     @Override
     public boolean columnExists(ChunkPos pos) throws IOException {
-        return this.save.getSaveSection2D().hasEntry(new EntryLocation2D(pos.x, pos.z));
+        return this.inFlightColumns.containsKey(pos) || this.save.getSaveSection2D().hasEntry(new EntryLocation2D(pos.x, pos.z));
     }
 
     @Override
     public boolean cubeExists(CubePos pos) throws IOException {
-        return this.save.getSaveSection3D().hasEntry(new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ()));
+        return this.inFlightCubes.containsKey(pos) || this.save.getSaveSection3D().hasEntry(new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ()));
     }
 
     @Override
     public NBTTagCompound readColumn(ChunkPos pos) throws IOException {
+        NBTTagCompound inFlight = this.inFlightColumns.get(pos);
+        if (inFlight != null) {
+            return inFlight;
+        }
         //we use a true here in order to force creation and caching of the new region, thus avoiding an expensive Files.exists() check for every cube/column (which
         // is really expensive on windows)
         Optional<ByteBuffer> data = this.save.load(new EntryLocation2D(pos.x, pos.z), true);
         return data.isPresent()
-                ? CompressedStreamTools.readCompressed(new ByteArrayInputStream(data.get().array())) //decompress and parse NBT
+                ? CubeCompression.read(data.get().array()) //decompress and parse NBT
                 : null; //column doesn't exist
     }
 
     @Override
     public NBTTagCompound readCube(CubePos pos) throws IOException {
+        NBTTagCompound inFlight = this.inFlightCubes.get(pos);
+        if (inFlight != null) {
+            return inFlight;
+        }
         //see comment in readColumn
         Optional<ByteBuffer> data = this.save.load(new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ()), true);
         return data.isPresent()
-                ? CompressedStreamTools.readCompressed(new ByteArrayInputStream(data.get().array())) //decompress and parse NBT
+                ? CubeCompression.read(data.get().array()) //decompress and parse NBT
                 : null; //cube doesn't exist
     }
 
+    @Override
+    public NBTBatch readBatch(PosBatch positions) throws IOException {
+        return new NBTBatch(
+                this.readEntries(positions.columns, this.inFlightColumns, pos -> new EntryLocation2D(pos.x, pos.z),
+                        (EntryLocation2D location) -> this.save.load(location, true)),
+                this.readEntries(positions.cubes, this.inFlightCubes, pos -> new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ()),
+                        (EntryLocation3D location) -> this.save.load(location, true)));
+    }
+
+    /**
+     * Reads multiple entries, grouped by region. The entries of each region are read one after another in the order of their key IDs (different regions
+     * are read in parallel), and are only decompressed once all of them have been read.
+     */
+    private <P, L extends IKey<L>> Map<P, NBTTagCompound> readEntries(Set<P> positions, Map<P, NBTTagCompound> inFlight,
+            Function<P, L> locationFunction, EntryReader<L> reader) throws IOException {
+        if (positions.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<P, NBTTagCompound> result = new HashMap<>(positions.size());
+        Map<RegionKey, List<L>> regions = new HashMap<>();
+        Map<L, P> positionsByLocation = new HashMap<>(positions.size());
+        for (P pos : positions) {
+            NBTTagCompound nbt = inFlight.get(pos);
+            if (nbt != null) {
+                result.put(pos, nbt);
+                continue;
+            }
+            L location = locationFunction.apply(pos);
+            positionsByLocation.put(location, pos);
+            regions.computeIfAbsent(location.getRegionKey(), key -> new ArrayList<>()).add(location);
+        }
+
+        try {
+            Map<L, ByteBuffer> data = regions.values().parallelStream()
+                    .flatMap(locations -> {
+                        locations.sort(Comparator.comparingInt(location -> location.getId()));
+                        List<Map.Entry<L, ByteBuffer>> regionData = new ArrayList<>(locations.size());
+                        for (L location : locations) {
+                            try {
+                                reader.load(location).ifPresent(buf -> regionData.add(new AbstractMap.SimpleImmutableEntry<>(location, buf)));
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                        return regionData.stream();
+                    })
+                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+
+            //decompress and parse NBT
+            result.putAll(data.entrySet().parallelStream().collect(Collectors.toMap(entry -> positionsByLocation.get(entry.getKey()), entry -> {
+                try {
+                    return CubeCompression.read(entry.getValue().array());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            })));
+        } catch (UncheckedIOException e) {
+            //rethrow original exception
+            throw e.getCause();
+        }
+
+        //entries which don't exist
+        for (P pos : positions) {
+            result.putIfAbsent(pos, null);
+        }
+        return result;
+    }
+
     @Override
     public void writeColumn(ChunkPos pos, NBTTagCompound nbt) throws IOException {
         ByteBuf compressedBuf = UnpooledByteBufAllocator.DEFAULT.ioBuffer();
         try {
             //compress NBT data
-            CompressedStreamTools.writeCompressed(nbt, new ByteBufOutputStream(compressedBuf));
+            this.compression.write(nbt, new ByteBufOutputStream(compressedBuf));
 
             //write compressed data to disk
             this.save.save2d(new EntryLocation2D(pos.x, pos.z), compressedBuf.nioBuffer());
@@ -171,8 +400,8 @@ public class RegionCubeStorage implements ICubicStorage {
     public void writeCube(CubePos pos, NBTTagCompound nbt) throws IOException {
         ByteBuf compressedBuf = UnpooledByteBufAllocator.DEFAULT.ioBuffer();
         try {
-            //compress NBT data
-            CompressedStreamTools.writeCompressed(nbt, new ByteBufOutputStream(compressedBuf));
+            //compress NBT data, binary cube data is written as it is
+            BinaryCubeData.writeEntry(nbt, this.compression, new ByteBufOutputStream(compressedBuf));
 
             //write compressed data to disk
             this.save.save3d(new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ()), compressedBuf.nioBuffer());
@@ -183,12 +412,106 @@ public class RegionCubeStorage implements ICubicStorage {
 
     @Override
     public void writeBatch(NBTBatch batch) throws IOException {
+        if (CubicChunksConfig.regionWriteThreads <= 0) {
+            this.writeBatchNow(batch, true);
+            return;
+        }
+
+        //split the batch by region, so that each region file can be compressed and written by a different thread
+        Map<RegionKey, NBTBatch> regions = new HashMap<>();
+        batch.columns.forEach((pos, nbt) -> this.addInFlightColumn(regions, pos, nbt));
+        batch.cubes.forEach((pos, nbt) -> this.addInFlightCube(regions, pos, nbt));
+
+        //retry failed writes, unless they have been replaced by newer data in the meantime
+        this.failedColumns.forEach((pos, nbt) -> {
+            if (this.failedColumns.remove(pos, nbt) && !batch.columns.containsKey(pos) && this.inFlightColumns.get(pos) == nbt) {
+                this.addInFlightColumn(regions, pos, nbt);
+            }
+        });
+        this.failedCubes.forEach((pos, nbt) -> {
+            if (this.failedCubes.remove(pos, nbt) && !batch.cubes.containsKey(pos) && this.inFlightCubes.get(pos) == nbt) {
+                this.addInFlightCube(regions, pos, nbt);
+            }
+        });
+
+        for (Map.Entry<RegionKey, NBTBatch> entry : regions.entrySet()) {
+            RegionKey regionKey = entry.getKey();
+            NBTBatch regionBatch = entry.getValue();
+            try {
+                //only block the save thread once too many region writes are queued
+                this.queuedRegionWrites.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for region writes");
+            }
+            CompletableFuture<Void> future = this.regionWriteTails.compute(regionKey, (key, tail) ->
+                    (tail == null ? CompletableFuture.<Void>completedFuture(null) : tail).thenRunAsync(() -> this.writeRegion(regionBatch), regionWriteExecutor()));
+            future.whenComplete((v, t) -> {
+                this.queuedRegionWrites.release();
+                this.regionWriteTails.remove(regionKey, future);
+            });
+        }
+    }
+
+    private void addInFlightColumn(Map<RegionKey, NBTBatch> regions, ChunkPos pos, NBTTagCompound nbt) {
+        this.inFlightColumns.put(pos, nbt);
+        regions.computeIfAbsent(new EntryLocation2D(pos.x, pos.z).getRegionKey(), key -> new NBTBatch(new HashMap<>(), new HashMap<>()))
+                .columns.put(pos, nbt);
+    }
+
+    private void addInFlightCube(Map<RegionKey, NBTBatch> regions, CubePos pos, NBTTagCompound nbt) {
+        this.inFlightCubes.put(pos, nbt);
+        regions.computeIfAbsent(new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ()).getRegionKey(), key -> new NBTBatch(new HashMap<>(), new HashMap<>()))
+                .cubes.put(pos, nbt);
+    }
+
+    /**
+     * Writes all entries of a single region, called on the region writer threads.
+     */
+    private void writeRegion(NBTBatch regionBatch) {
+        try {
+            this.writeBatchNow(regionBatch, false);
+
+            //using remove(key, value) in order to keep entries which have been replaced since this write has been queued
+            regionBatch.columns.forEach(this.inFlightColumns::remove);
+            regionBatch.cubes.forEach(this.inFlightCubes::remove);
+        } catch (IOException | RuntimeException e) {
+            CubicChunks.LOGGER.error("Failed to write {} columns and {} cubes, will retry with the next batch",
+                    regionBatch.columns.size(), regionBatch.cubes.size(), e);
+            this.failedColumns.putAll(regionBatch.columns);
+            this.failedCubes.putAll(regionBatch.cubes);
+        }
+    }
+
+    /**
+     * Blocks until all region writes queued so far are finished, and retries failed writes once.
+     *
+     * @throws IOException if some entries still couldn't be written
+     */
+    private void finishRegionWrites() throws IOException {
+        this.awaitRegionWrites();
+        if (!this.failedColumns.isEmpty() || !this.failedCubes.isEmpty()) {
+            this.writeBatch(new NBTBatch(Collections.emptyMap(), Collections.emptyMap()));
+            this.awaitRegionWrites();
+            if (!this.failedColumns.isEmpty() || !this.failedCubes.isEmpty()) {
+                throw new IOException("Failed to write " + this.failedColumns.size() + " columns and " + this.failedCubes.size() + " cubes");
+            }
+        }
+    }
+
+    private void awaitRegionWrites() {
+        CompletableFuture.allOf(this.regionWriteTails.values().toArray(new CompletableFuture[0])).join();
+    }
+
+    private void writeBatchNow(NBTBatch batch, boolean parallel) throws IOException {
         Map<EntryLocation2D, ByteBuf> compressedColumns = Collections.emptyMap();
         Map<EntryLocation3D, ByteBuf> compressedCubes = Collections.emptyMap();
         try {
             //compress NBT data
-            compressedColumns = this.compressNBTForBatchWrite(batch.columns, pos -> new EntryLocation2D(pos.x, pos.z));
-            compressedCubes = this.compressNBTForBatchWrite(batch.cubes, pos -> new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ()));
+            compressedColumns = this.compressNBTForBatchWrite(batch.columns, pos -> new EntryLocation2D(pos.x, pos.z),
+                    this.compression::write, parallel);
+            compressedCubes = this.compressNBTForBatchWrite(batch.cubes, pos -> new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ()),
+                    (nbt, out) -> BinaryCubeData.writeEntry(nbt, this.compression, out), parallel);
 
             //write compressed data to disk
             if (!compressedColumns.isEmpty()) {
@@ -204,7 +527,8 @@ public class RegionCubeStorage implements ICubicStorage {
         }
     }
 
-    private <KI, KO> Map<KO, ByteBuf> compressNBTForBatchWrite(Map<KI, NBTTagCompound> nbt, Function<KI, KO> keyMappingFunction) throws IOException {
+    private <KI, KO> Map<KO, ByteBuf> compressNBTForBatchWrite(Map<KI, NBTTagCompound> nbt, Function<KI, KO> keyMappingFunction,
+            EntryWriter writer, boolean parallel) throws IOException {
         if (nbt.isEmpty()) { //avoid somewhat expensive stream creation if there are no entries
             return Collections.emptyMap();
         }
@@ -213,11 +537,12 @@ public class RegionCubeStorage implements ICubicStorage {
             //if the following code throws an exception, something is VERY wrong, so i won't bother with needlessly complex code to ensure that any
             //  previously allocated buffers get released in the event of an exception being thrown
 
-            return nbt.entrySet().parallelStream().collect(Collectors.toMap(entry -> keyMappingFunction.apply(entry.getKey()), entry -> {
+            Stream<Map.Entry<KI, NBTTagCompound>> entries = parallel ? nbt.entrySet().parallelStream() : nbt.entrySet().stream();
+            return entries.collect(Collectors.toMap(entry -> keyMappingFunction.apply(entry.getKey()), entry -> {
                 ByteBuf compressedBuf = UnpooledByteBufAllocator.DEFAULT.ioBuffer();
                 try {
                     //encode and compress nbt data
-                    CompressedStreamTools.writeCompressed(entry.getValue(), new ByteBufOutputStream(compressedBuf));
+                    writer.write(entry.getValue(), new ByteBufOutputStream(compressedBuf));
 
                     return compressedBuf.retain();
                 } catch (IOException e) {
@@ -245,12 +570,31 @@ public class RegionCubeStorage implements ICubicStorage {
 
     @Override
     public void flush() throws IOException {
+        this.finishRegionWrites();
         this.save.flush();
     }
 
     @Override
     public void close() throws IOException {
+        this.closing = true;
+        if (this.compactionTask != null) {
+            this.compactionTask.cancel(false);
+        }
+        synchronized (this.compactionLock) { // wait for a running compaction to stop
+            this.compactionTask = null;
+        }
+        this.finishRegionWrites();
         this.save.close();
         this.save = null;
     }
+
+    @FunctionalInterface
+    private interface EntryReader<L> {
+        Optional<ByteBuffer> load(L location) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface EntryWriter {
+        void write(NBTTagCompound nbt, OutputStream out) throws IOException;
+    }
 }
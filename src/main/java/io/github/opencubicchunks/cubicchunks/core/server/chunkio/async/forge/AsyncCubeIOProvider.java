@@ -26,12 +26,14 @@ import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.server.chunkio.ICubeIO;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraftforge.common.MinecraftForge;
 
 import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -48,6 +50,9 @@ class AsyncCubeIOProvider extends AsyncIOProvider<Cube> {
     @Nonnull private final ICubeIO loader;
 
     @Nonnull private final CompletableFuture<Chunk> futureColumn = new CompletableFuture<>();
+    // completed by whichever thread reads the NBT of this cube, possibly together with other cubes from the same region
+    @Nonnull private final CompletableFuture<NBTTagCompound> futureNbt = new CompletableFuture<>();
+    @Nonnull private final AtomicBoolean nbtReadClaimed = new AtomicBoolean();
     @Nullable private ICubeIO.PartialData<ICube> cubeData;
     @Nullable private Exception exception;
 
@@ -59,11 +64,15 @@ class AsyncCubeIOProvider extends AsyncIOProvider<Cube> {
     @Override
     public void run() {
         try {
+            if (this.claimNbtRead()) {
+                AsyncWorldIOExecutor.readCubeNbtBatch(this);
+            }
+            NBTTagCompound nbt = this.getNbt();
             Chunk column = futureColumn.get();
             if (column.isEmpty()) {
                 cubeData = new ICubeIO.PartialData<>(null, null);
             } else {
-                cubeData = this.loader.loadCubeAsyncPart(column, this.cubeInfo.y);
+                cubeData = this.loader.loadCubeAsyncPart(column, this.cubeInfo.y, new ICubeIO.PartialData<>(null, nbt));
             }
         }  catch (InterruptedException e) {
             throw new Error(e);
@@ -107,6 +116,38 @@ class AsyncCubeIOProvider extends AsyncIOProvider<Cube> {
         return cubeData == null ? null : (Cube) cubeData.getObject();
     }
 
+    @Nullable
+    private NBTTagCompound getNbt() throws IOException, InterruptedException {
+        try {
+            return this.futureNbt.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Could not read cube NBT", e.getCause());
+        }
+    }
+
+    /**
+     * @return true if the calling thread is now responsible for reading the NBT of this cube, false if another thread already is
+     */
+    boolean claimNbtRead() {
+        return this.nbtReadClaimed.compareAndSet(false, true);
+    }
+
+    void setNbt(@Nullable NBTTagCompound nbt) {
+        this.futureNbt.complete(nbt);
+    }
+
+    void setNbtReadFailed(Throwable t) {
+        this.futureNbt.completeExceptionally(t);
+    }
+
+    QueuedCube getCubeInfo() {
+        return this.cubeInfo;
+    }
+
+    ICubeIO getLoader() {
+        return this.loader;
+    }
+
     public void setColumn(@Nullable Chunk chunk) {
         if (futureColumn.isDone()) {
             return;
@@ -23,6 +23,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Sets;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubeProviderServer;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
@@ -30,6 +31,7 @@ import io.github.opencubicchunks.cubicchunks.core.server.CubeProviderServer;
 import io.github.opencubicchunks.cubicchunks.core.server.chunkio.ICubeIO;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
@@ -41,8 +43,12 @@ import net.minecraftforge.fml.common.gameevent.TickEvent;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -61,6 +67,7 @@ public class AsyncWorldIOExecutor {
 
     private static final int BASE_THREADS = 1;
     private static final int PLAYERS_PER_THREAD = 50;
+    private static final int MAX_CUBE_READ_BATCH_SIZE = 256;
 
     private static final Map<QueuedCube, AsyncCubeIOProvider> cubeTasks = new ConcurrentHashMap<>(20000, 0.8f, 1);
     private static final Map<QueuedColumn, AsyncColumnIOProvider> columnTasks = Maps.newConcurrentMap();
@@ -76,6 +83,10 @@ public class AsyncWorldIOExecutor {
     private static final Multimap<QueuedColumn, QueuedCube> loadingCubesColumnMap =
             Multimaps.newMultimap(new ConcurrentHashMap<>(), Sets::newConcurrentHashSet);
 
+    // queued cube loads whose NBT hasn't been read yet, grouped by 16x16x16 cube region (same as the anvil3d region size),
+    // so that the first of them to run can read the NBT of the others too
+    private static final Map<QueuedCube, Set<AsyncCubeIOProvider>> unreadCubeTasks = new ConcurrentHashMap<>();
+
     static {
         initExecutors();
     }
@@ -222,6 +233,7 @@ public class AsyncWorldIOExecutor {
             task.addCallback(runnable); // Add before calling execute for thread safety
             task.addCallback(c -> loadingCubesColumnMap.remove(columnKey, key));// add only the first time
             cubeTasks.put(key, task);
+            addUnreadCubeTask(task);
             cubeThreadPool.execute(task);
         } else {
             task.addCallback(runnable);
@@ -237,6 +249,73 @@ public class AsyncWorldIOExecutor {
 
     }
 
+    private static QueuedCube regionOf(QueuedCube cube) {
+        return new QueuedCube(cube.x >> 4, cube.y >> 4, cube.z >> 4, cube.world);
+    }
+
+    private static void addUnreadCubeTask(AsyncCubeIOProvider task) {
+        unreadCubeTasks.compute(regionOf(task.getCubeInfo()), (region, tasks) -> {
+            if (tasks == null) {
+                tasks = Sets.newConcurrentHashSet();
+            }
+            tasks.add(task);
+            return tasks;
+        });
+    }
+
+    private static void removeUnreadCubeTask(AsyncCubeIOProvider task) {
+        unreadCubeTasks.computeIfPresent(regionOf(task.getCubeInfo()), (region, tasks) -> {
+            tasks.remove(task);
+            return tasks.isEmpty() ? null : tasks;
+        });
+    }
+
+    /**
+     * Reads the NBT of the given cube, together with the NBT of other queued cubes in the same region which haven't been read yet, using a single
+     * {@link ICubeIO#loadCubeNbtBatch(Set)} call. The caller must have claimed the NBT read of the given task.
+     */
+    static void readCubeNbtBatch(AsyncCubeIOProvider task) {
+        ICubeIO loader = task.getLoader();
+        Map<CubePos, AsyncCubeIOProvider> batch = new HashMap<>();
+        batch.put(toCubePos(task.getCubeInfo()), task);
+        removeUnreadCubeTask(task);
+
+        Set<AsyncCubeIOProvider> sameRegion = unreadCubeTasks.get(regionOf(task.getCubeInfo()));
+        if (sameRegion != null) {
+            for (AsyncCubeIOProvider other : sameRegion) {
+                if (batch.size() >= MAX_CUBE_READ_BATCH_SIZE) {
+                    break;
+                }
+                if (other.getLoader() == loader && other.claimNbtRead()) {
+                    batch.put(toCubePos(other.getCubeInfo()), other);
+                    removeUnreadCubeTask(other);
+                }
+            }
+        }
+
+        try {
+            Map<CubePos, NBTTagCompound> nbt = loader.loadCubeNbtBatch(batch.keySet());
+            batch.forEach((pos, t) -> t.setNbt(nbt.get(pos)));
+        } catch (IOException | RuntimeException e) {
+            if (batch.size() == 1) {
+                task.setNbtReadFailed(e);
+                return;
+            }
+            // read the cubes one by one, so that a single corrupted cube doesn't affect the others
+            batch.forEach((pos, t) -> {
+                try {
+                    t.setNbt(loader.loadCubeNbtBatch(Collections.singleton(pos)).get(pos));
+                } catch (IOException | RuntimeException e1) {
+                    t.setNbtReadFailed(e1);
+                }
+            });
+        }
+    }
+
+    private static CubePos toCubePos(QueuedCube cube) {
+        return new CubePos(cube.x, cube.y, cube.z);
+    }
+
     /**
      * Queue a column load, running the specified callback when the load has finished
      *
@@ -283,6 +362,7 @@ public class AsyncWorldIOExecutor {
         if (!task.hasCallbacks()) {
             cubeTasks.remove(key);
             cubeThreadPool.remove(task);
+            removeUnreadCubeTask(task);
         }
     }
 
@@ -317,6 +397,7 @@ public class AsyncWorldIOExecutor {
         // shut down cubes first to avoid a cube executor getting stuck waiting for it's column
         cubeThreadPool.shutdownNow();
         cubeTasks.clear();
+        unreadCubeTasks.clear();
         try {
             cubeThreadPool.awaitTermination(10, TimeUnit.SECONDS);
         } catch (InterruptedException ignored) {
@@ -44,18 +44,24 @@ import net.minecraft.util.Tuple;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.ByteChannel;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -66,12 +72,19 @@ import static java.nio.file.StandardOpenOption.*;
 /**
  * Simplified {@link Region} class implementing shadow paging by using custom sector tracker
  * that doesn't reallocate entries in place.
+ * <p>
+ * Reads don't take any locks. After each batch of header updates, an immutable snapshot of all entry locations is published, and readers use the
+ * latest snapshot. Sectors which are no longer referenced by the headers are only freed once no reader is using a snapshot which may still
+ * reference them.
  */
 public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 	//a read-only global buffer containing zeroes, used as a read source when zeroing out sector contents
 	private static final int ZERO_BYTEBUFFER_CAPACITY = 4096;
 	private static final ByteBuffer ZERO_BYTEBUFFER = ByteBuffer.allocateDirect(ZERO_BYTEBUFFER_CAPACITY).asReadOnlyBuffer();
 
+	//number of entries moved at once by compact(), writes to the region are blocked while a batch is written
+	private static final int COMPACTION_BATCH_SIZE = 32;
+
 	/**
 	 * Gets an array of read-only {@link ByteBuffer}(s) filled with zeroes, whose total {@link ByteBuffer#remaining() remaining} space is equal to
 	 * the given {@code length}.
@@ -109,15 +122,38 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 	private final int sectorSize;
 	private final SectorTracker<K> sectorTracker;
 
+	private final boolean memoryMappedReads;
+	private final Comparator<? super K> compactionOrder;
+
 	private final ReadWriteLock dataLock = new ReentrantReadWriteLock();
 	private final ReadWriteLock reserveSectorsLock = new ReentrantReadWriteLock();
-	private ShadowPagingRegion(FileChannel file, SectorTracker<K> sectorTracker, IHeaderDataEntryProvider<?, K> headerEntryProvider, RegionKey regionKey, IKeyProvider<K> keyProvider, int sectorSize) {
+
+	//read-only mapping of the whole file, replaced by a bigger one when reading past its end after the file has grown.
+	// only entries referenced by a snapshot the reader holds are read from it, so that writes can't change sectors that are being read
+	private volatile MappedByteBuffer mappedFile;
+	private final Object remapLock = new Object();
+
+	//the entry locations as of the last header update
+	private volatile Snapshot snapshot;
+	//replaced snapshots whose retired sectors haven't been freed yet, oldest first. only accessed while holding both write locks
+	private final ArrayDeque<Snapshot> supersededSnapshots = new ArrayDeque<>();
+
+	private ShadowPagingRegion(FileChannel file, SectorTracker<K> sectorTracker, IHeaderDataEntryProvider<?, K> headerEntryProvider, RegionKey regionKey, IKeyProvider<K> keyProvider, int sectorSize,
+			boolean memoryMappedReads, Comparator<? super K> compactionOrder) {
 		this.file = file;
+		this.memoryMappedReads = memoryMappedReads;
+		this.compactionOrder = compactionOrder;
 		this.headerEntryProvider = headerEntryProvider;
 		this.regionKey = regionKey;
 		this.keyProvider = keyProvider;
 		this.sectorSize = sectorSize;
 		this.sectorTracker = sectorTracker;
+
+		long[] locations = new long[keyProvider.getKeyCount(regionKey)];
+		for (int id = 0; id < locations.length; id++) {
+			locations[id] = this.snapshotLocation(keyProvider.fromRegionAndId(regionKey, id));
+		}
+		this.snapshot = new Snapshot(locations);
 	}
 
 	@Override
@@ -143,12 +179,12 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 		mainLock.lock();
 		//entries.forEach((k, v) -> CubicChunks.LOGGER.error(this + ": WRITE: " + k + ", " + v.remaining()));
 		try {
+			//make sectors which readers no longer need available to this batch
+			freeRetiredSectors();
+
 			// first pass: reserve header locations:
 			reserveHeaderEntriesPass(entries, exceptions, pendingHeaderUpdates, entryLocationsToUse);
-		} finally {
-			sectorLock.unlock();
-		}
-		try {
+
 			// second pass: write all data
 			boolean shouldFlush = writeDataPass(entries, exceptions, entryLocationsToUse);
 
@@ -165,7 +201,9 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 				throw new MultiUnsupportedDataException(exceptions);
 			}
 		} finally {
-			 mainLock.unlock();
+			//the sector lock is held until the headers are updated, as publishing the snapshot frees retired sectors
+			mainLock.unlock();
+			sectorLock.unlock();
 		}
 	}
 
@@ -267,6 +305,65 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 
 			//ensure all header modifications are present on disk before another batch runs
 			this.file.force(true);
+
+			this.publishSnapshot(pendingHeaderUpdates.keySet());
+		}
+	}
+
+	/**
+	 * Publishes a new snapshot with updated locations for the given keys. Must be called while holding the write locks of both
+	 * {@link #reserveSectorsLock} and {@link #dataLock}, as sectors retired here are taken from the sector tracker.
+	 */
+	private void publishSnapshot(Collection<K> changedKeys) {
+		assert ((ReentrantReadWriteLock) this.reserveSectorsLock).isWriteLockedByCurrentThread();
+		assert ((ReentrantReadWriteLock) this.dataLock).isWriteLockedByCurrentThread();
+		Snapshot previous = this.snapshot;
+		long[] locations = previous.locations.clone();
+		for (K key : changedKeys) {
+			locations[key.getId()] = this.snapshotLocation(key);
+		}
+
+		//sectors released by this header update may still be read through the previous snapshot
+		previous.retiredSectors = this.sectorTracker.takeRetiredSectors();
+		this.supersededSnapshots.add(previous);
+		this.snapshot = new Snapshot(locations);
+
+		freeRetiredSectors();
+	}
+
+	/**
+	 * Frees the retired sectors of superseded snapshots, starting with the oldest one, as long as no reader uses them. Must be called while holding both
+	 * write locks.
+	 */
+	private void freeRetiredSectors() {
+		Snapshot oldest;
+		//readers only start using the current snapshot, so once a superseded snapshot has no readers, it never will again
+		while ((oldest = this.supersededSnapshots.peekFirst()) != null && oldest.readers.get() == 0) {
+			this.supersededSnapshots.pollFirst();
+			oldest.retiredSectors.forEach(this.sectorTracker::freeSectors);
+		}
+	}
+
+	private long snapshotLocation(K key) {
+		if (this.sectorTracker.trySpecialValue(key).isPresent()) {
+			return Snapshot.SPECIAL;
+		}
+		Optional<RegionEntryLocation> location = this.sectorTracker.getEntryLocation(key);
+		if (!location.isPresent() || location.get().getSize() == 0) {
+			return Snapshot.ABSENT;
+		}
+		return (long) location.get().getOffset() << 32 | location.get().getSize();
+	}
+
+	private Snapshot acquireSnapshot() {
+		while (true) {
+			Snapshot snapshot = this.snapshot;
+			snapshot.readers.incrementAndGet();
+			//if a newer snapshot was published in the meantime, the writer may have already freed the sectors of this one
+			if (snapshot == this.snapshot) {
+				return snapshot;
+			}
+			snapshot.readers.decrementAndGet();
 		}
 	}
 
@@ -279,6 +376,7 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 			this.sectorTracker.setSpecial(key, marker);
 			updateHeaders(key);
 			file.force(false);
+			this.publishSnapshot(Collections.singletonList(key));
 		} finally {
 			mainLock.unlock();
 			sectorLock.unlock();
@@ -294,7 +392,23 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 	}
 
 	@Override public Optional<ByteBuffer> readValue(K key) throws IOException {
+		Snapshot snapshot = this.acquireSnapshot();
+		try {
+			long location = snapshot.locations[key.getId()];
+			if (location == Snapshot.ABSENT) {
+				return Optional.empty();
+			}
+			if (location != Snapshot.SPECIAL) {
+				return Optional.of(this.readEntry((int) (location >>> 32), (int) location));
+			}
+		} finally {
+			snapshot.readers.decrementAndGet();
+		}
+		//special values are rare, read them with locks
+		return this.readValueLocked(key);
+	}
 
+	private Optional<ByteBuffer> readValueLocked(K key) throws IOException {
 		Lock sectorLock = reserveSectorsLock.readLock();
 		Lock mainLock = dataLock.readLock();
 		boolean mainLocked = false;
@@ -332,30 +446,80 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 				return Optional.empty();
 			}
 			RegionEntryLocation loc = entryLocation.get();
-			int sectorOffset = loc.getOffset();
-			int sectorCount = loc.getSize();
-
-			// read data size (one int)
-			ByteBuffer buf = ByteBuffer.allocate(Integer.BYTES);
-			long position = (long) sectorOffset * sectorSize;
-			readFully(file, buf, position);
-
-			int dataLength = buf.getInt(0);
-			if (dataLength > sectorCount * sectorSize) {
-				throw new CorruptedDataException(
-						"Expected data size max " + sectorCount * sectorSize + " but found " + dataLength);
-			}
-
-			// read data
-			ByteBuffer bytes = ByteBuffer.allocate(dataLength);
-			readFully(file, bytes, position + Integer.BYTES);
-			bytes.flip();
-			return Optional.of(bytes);
+			return Optional.of(this.readEntry(loc.getOffset(), loc.getSize()));
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
 	}
 
+	private ByteBuffer readEntry(int sectorOffset, int sectorCount) throws IOException {
+		if (this.memoryMappedReads) {
+			MappedByteBuffer mapping = this.mappingCovering((long) (sectorOffset + sectorCount) * sectorSize);
+			if (mapping != null) {
+				return readMapped(mapping, sectorOffset * sectorSize, sectorCount);
+			}
+		}
+
+		// read data size (one int)
+		ByteBuffer buf = ByteBuffer.allocate(Integer.BYTES);
+		long position = (long) sectorOffset * sectorSize;
+		readFully(file, buf, position);
+
+		int dataLength = buf.getInt(0);
+		if (dataLength > sectorCount * sectorSize) {
+			throw new CorruptedDataException(
+					"Expected data size max " + sectorCount * sectorSize + " but found " + dataLength);
+		}
+
+		// read data
+		ByteBuffer bytes = ByteBuffer.allocate(dataLength);
+		readFully(file, bytes, position + Integer.BYTES);
+		bytes.flip();
+		return bytes;
+	}
+
+	/**
+	 * Copies an entry out of the mapped file. The data is copied instead of returning a slice of the mapping, as once the reader releases its snapshot
+	 * the entry's sectors may be freed and then erased or reused by a later write.
+	 */
+	private ByteBuffer readMapped(MappedByteBuffer mapping, int position, int sectorCount) throws CorruptedDataException {
+		int dataLength = mapping.getInt(position);
+		if (dataLength > sectorCount * sectorSize) {
+			throw new CorruptedDataException(
+					"Expected data size max " + sectorCount * sectorSize + " but found " + dataLength);
+		}
+		ByteBuffer src = mapping.duplicate();
+		src.position(position + Integer.BYTES).limit(position + Integer.BYTES + dataLength);
+		ByteBuffer bytes = ByteBuffer.allocate(dataLength);
+		bytes.put(src);
+		bytes.flip();
+		return bytes;
+	}
+
+	/**
+	 * @return a mapping of the file which contains everything up to the given position, or {@code null} if the file can't be mapped that far
+	 */
+	private MappedByteBuffer mappingCovering(long end) throws IOException {
+		MappedByteBuffer mapping = this.mappedFile;
+		if (mapping != null && end <= mapping.capacity()) {
+			return mapping;
+		}
+		synchronized (this.remapLock) {
+			mapping = this.mappedFile;
+			if (mapping != null && end <= mapping.capacity()) {
+				return mapping;
+			}
+			long size = this.file.size();
+			if (end > size || size > Integer.MAX_VALUE) {
+				//either the entry is corrupted or the file is too big to be mapped at once, let the regular read path deal with it
+				return null;
+			}
+			mapping = this.file.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			this.mappedFile = mapping;
+			return mapping;
+		}
+	}
+
 	/**
 	 * Returns true if something was stored there before within this region.
 	 */
@@ -387,6 +551,158 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 		}
 	}
 
+	/**
+	 * @return the number of bytes used by the headers and live entries
+	 */
+	public long getUsedBytes() {
+		reserveSectorsLock.readLock().lock();
+		try {
+			return this.sectorTracker.getUsedSectorCount() * (long) this.sectorSize;
+		} finally {
+			reserveSectorsLock.readLock().unlock();
+		}
+	}
+
+	public long getFileSize() throws IOException {
+		return this.file.size();
+	}
+
+	public boolean isOpen() {
+		return this.file.isOpen();
+	}
+
+	public RegionKey getRegionKey() {
+		return this.regionKey;
+	}
+
+	/**
+	 * Rewrites all entries contiguously at the start of the file, in the compaction order of this region, and truncates the file.
+	 * <p>
+	 * Entries which aren't already in place are first moved past the end of the used part of the file and then back to the front, so that no sector
+	 * is overwritten while it's still referenced. Entries are moved in small batches, so concurrent writes are only blocked briefly, and entries
+	 * rewritten concurrently are left wherever the write put them.
+	 *
+	 * @param throttle called before each batch of entries is moved, with the number of bytes that will be read and written
+	 * @return the number of bytes the file shrunk by
+	 */
+	public long compact(CompactionThrottle throttle) throws IOException {
+		long sizeBefore = this.file.size();
+
+		List<K> keys = new ArrayList<>();
+		Snapshot snapshot = this.acquireSnapshot();
+		try {
+			for (int id = 0; id < snapshot.locations.length; id++) {
+				if (snapshot.locations[id] >= 0) {
+					keys.add(this.keyProvider.fromRegionAndId(this.regionKey, id));
+				}
+			}
+			keys.sort(this.compactionOrder);
+
+			//entries which are already where they would be moved to can stay there
+			int sector = this.sectorTracker.getReservedSectors();
+			int inPlace = 0;
+			for (K key : keys) {
+				long location = snapshot.locations[key.getId()];
+				if ((int) (location >>> 32) != sector) {
+					break;
+				}
+				sector += (int) location;
+				inPlace++;
+			}
+			keys = keys.subList(inPlace, keys.size());
+		} finally {
+			snapshot.readers.decrementAndGet();
+		}
+
+		if (!keys.isEmpty()) {
+			this.moveEntries(keys, true, throttle);
+			this.moveEntries(keys, false, throttle);
+		}
+		//frees the sectors of the moved entries and truncates the file
+		this.flush();
+		return sizeBefore - this.file.size();
+	}
+
+	private void moveEntries(List<K> keys, boolean toEnd, CompactionThrottle throttle) throws IOException {
+		for (int start = 0; start < keys.size(); start += COMPACTION_BATCH_SIZE) {
+			//keeps the compaction order, so that entries are assigned their new sectors in that order
+			Map<K, ByteBuffer> entries = new LinkedHashMap<>();
+			Map<K, Long> readLocations = new LinkedHashMap<>();
+			long bytes = 0L;
+
+			Snapshot snapshot = this.acquireSnapshot();
+			try {
+				for (K key : keys.subList(start, Math.min(start + COMPACTION_BATCH_SIZE, keys.size()))) {
+					long location = snapshot.locations[key.getId()];
+					if (location < 0) { //deleted or replaced by a special value in the meantime
+						continue;
+					}
+					ByteBuffer data = this.readEntry((int) (location >>> 32), (int) location);
+					bytes += data.remaining();
+					entries.put(key, data);
+					readLocations.put(key, location);
+				}
+			} finally {
+				snapshot.readers.decrementAndGet();
+			}
+
+			if (!entries.isEmpty()) {
+				throttle.beforeMove(bytes * 2L);
+				this.relocateEntries(entries, readLocations, toEnd);
+			}
+		}
+	}
+
+	/**
+	 * Writes the given entries to new sectors, either past the end of the used part of the file, or to the first free sectors if they are before the
+	 * entry's current location. Entries which have been rewritten since they were read are skipped.
+	 */
+	private void relocateEntries(Map<K, ByteBuffer> entries, Map<K, Long> readLocations, boolean toEnd) throws IOException {
+		List<UnsupportedDataException.WithKey> exceptions = new ArrayList<>();
+		Map<K, Optional<RegionEntryLocation>> pendingHeaderUpdates = new HashMap<>(entries.size());
+		Map<K, RegionEntryLocation> entryLocationsToUse = new HashMap<>(entries.size());
+		Map<K, ByteBuffer> toWrite = new LinkedHashMap<>(entries.size());
+
+		Lock sectorLock = reserveSectorsLock.writeLock();
+		Lock mainLock = dataLock.writeLock();
+		sectorLock.lock();
+		mainLock.lock();
+		try {
+			freeRetiredSectors();
+
+			for (Map.Entry<K, ByteBuffer> entry : entries.entrySet()) {
+				K key = entry.getKey();
+				long location = readLocations.get(key);
+				if (this.snapshotLocation(key) != location) {
+					continue;
+				}
+				int sectorCount = (int) location;
+				RegionEntryLocation target = toEnd
+						? new RegionEntryLocation(this.sectorTracker.getSectorsLength(), sectorCount)
+						: this.sectorTracker.findFree(sectorCount);
+				if (!toEnd && target.getOffset() >= (int) (location >>> 32)) {
+					continue; //moving it wouldn't free up space at the end of the file
+				}
+				Tuple<RegionEntryLocation, RegionEntryLocation> headerUpdate = this.sectorTracker.reserveAt(key, target);
+				pendingHeaderUpdates.put(key, Optional.ofNullable(headerUpdate.getFirst()));
+				entryLocationsToUse.put(key, headerUpdate.getSecond());
+				toWrite.put(key, entry.getValue());
+			}
+
+			if (writeDataPass(toWrite, exceptions, entryLocationsToUse)) {
+				this.file.force(true);
+			}
+			doPendingHeaderUpdatesPass(pendingHeaderUpdates);
+
+			if (!exceptions.isEmpty()) {
+				throw new MultiUnsupportedDataException(exceptions);
+			}
+		} finally {
+			mainLock.unlock();
+			sectorLock.unlock();
+		}
+	}
+
 	private int getSectorNumber(int bytes) {
 		return ceilDiv(bytes, sectorSize);
 	}
@@ -397,6 +713,8 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 		reserveSectorsLock.writeLock().lock();
 		dataLock.writeLock().lock();
 		try {
+			freeRetiredSectors();
+
 			boolean fileLengthChanged = false;
 			fileLengthChanged |= this.ensureSectorSizeAligned();
 
@@ -419,6 +737,7 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 
 		//try-with-resources on file to ensure that the file gets closed, even if the other code throws an exception
 		try (FileChannel file = this.file) {
+			freeRetiredSectors();
 			this.ensureSectorSizeAligned();
 			this.erasePendingSectors();
 		} finally {
@@ -464,7 +783,9 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 		long expectedFileSize = this.sectorTracker.getSectorsLength() * (long) this.sectorSize;
 		long actualFileSize = this.file.size();
 		assert expectedFileSize <= actualFileSize : "region file is too short???";
-		if (actualFileSize > expectedFileSize) { //the file has unused sectors at the end, truncate it to save space
+		//when the file is memory mapped, the trailing sectors are kept. the mapping can't be unmapped explicitly, and a file with a mapping can't be
+		//  truncated on some platforms. the sectors have already been zeroed out and will be reused by later writes
+		if (actualFileSize > expectedFileSize && !this.memoryMappedReads) { //the file has unused sectors at the end, truncate it to save space
 			this.file.truncate(expectedFileSize);
 			return true; //the file's length changed
 		}
@@ -485,12 +806,43 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 		}
 	}
 
+	@FunctionalInterface
+	public interface CompactionThrottle {
+		/**
+		 * Called before a batch of entries is moved, may block to limit the rate at which data is moved.
+		 *
+		 * @param bytes the number of bytes that will be read and written
+		 * @throws IOException to abort the compaction
+		 */
+		void beforeMove(long bytes) throws IOException;
+	}
+
+	/**
+	 * Immutable entry locations of all keys, indexed by key ID. Each location is either {@link #ABSENT}, {@link #SPECIAL}, or the sector offset in the
+	 * upper 32 bits and the sector count in the lower 32 bits.
+	 */
+	private static final class Snapshot {
+		static final long ABSENT = -1L;
+		static final long SPECIAL = -2L;
+
+		final long[] locations;
+		final AtomicInteger readers = new AtomicInteger();
+		//the sectors which stopped being referenced when this snapshot was superseded, set by the writer
+		List<RegionEntryLocation> retiredSectors = Collections.emptyList();
+
+		Snapshot(long[] locations) {
+			this.locations = locations;
+		}
+	}
+
 	public static class Builder<K extends IKey<K>> {
 
 		private Path directory;
 		private int sectorSize = 512;
 		private RegionKey regionKey;
 		private IKeyProvider<K> keyProvider;
+		private boolean memoryMappedReads;
+		private Comparator<? super K> compactionOrder = Comparator.comparingInt(IKey::getId);
 
 		public Builder<K> setDirectory(Path path) {
 			this.directory = path;
@@ -512,6 +864,19 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 			return this;
 		}
 
+		public Builder<K> setMemoryMappedReads(boolean memoryMappedReads) {
+			this.memoryMappedReads = memoryMappedReads;
+			return this;
+		}
+
+		/**
+		 * Sets the order in which {@link ShadowPagingRegion#compact(CompactionThrottle)} stores entries, by default entries are stored in key ID order.
+		 */
+		public Builder<K> setCompactionOrder(Comparator<? super K> compactionOrder) {
+			this.compactionOrder = compactionOrder;
+			return this;
+		}
+
 		public ShadowPagingRegion<K> build() throws IOException {
 			FileChannel file = FileChannel.open(directory.resolve(regionKey.getName()), CREATE, READ, WRITE);
 
@@ -520,7 +885,8 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 
 			IntPackedSectorMap<K> sectorMap = IntPackedSectorMap.readOrCreate(file, keyProvider.getKeyCount(regionKey), new ArrayList<>());
 			SectorTracker<K> regionSectorTracker = SectorTracker.fromFile(file, sectorMap, entryMapSectors, sectorSize);
-			return new ShadowPagingRegion<>(file, regionSectorTracker, sectorMap.headerEntryProvider(), this.regionKey, keyProvider, this.sectorSize);
+			return new ShadowPagingRegion<>(file, regionSectorTracker, sectorMap.headerEntryProvider(), this.regionKey, keyProvider, this.sectorSize,
+					this.memoryMappedReads, this.compactionOrder);
 		}
 	}
 
@@ -528,15 +894,22 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 
 		private final BitSet usedSectors;
 		private final IKeyIdToSectorMap<?, ?, K> sectorMap;
+		private final int reservedSectors;
 
 		/**
 		 * Set of sectors which are queued to be zeroed out.
 		 */
 		private final BitSet sectorsPendingErasure = new BitSet();
 
-		private SectorTracker(BitSet usedSectors, IKeyIdToSectorMap<?, ?, K> sectorMap) {
+		/**
+		 * Sectors which are no longer referenced by the headers, but haven't been freed yet.
+		 */
+		private final List<RegionEntryLocation> retiredSectors = new ArrayList<>();
+
+		private SectorTracker(BitSet usedSectors, IKeyIdToSectorMap<?, ?, K> sectorMap, int reservedSectors) {
 			this.usedSectors = usedSectors;
 			this.sectorMap = sectorMap;
+			this.reservedSectors = reservedSectors;
 		}
 
 		public Optional<RegionEntryLocation> getEntryLocation(int id) {
@@ -569,8 +942,14 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 		 * The old sectors will not be released.
 		 */
 		public Tuple<RegionEntryLocation, RegionEntryLocation> reserveForKey(K key, int requestedSize) throws IOException {
+			return reserveAt(key, findFree(requestedSize));
+		}
+
+		/**
+		 * Same as {@link #reserveForKey(IKey, int)}, but with the new location chosen by the caller. The given sectors must be free.
+		 */
+		public Tuple<RegionEntryLocation, RegionEntryLocation> reserveAt(K key, RegionEntryLocation found) throws IOException {
 			Optional<RegionEntryLocation> existing = sectorMap.getEntryLocation(key);
-			RegionEntryLocation found = findFree(requestedSize);
 			this.sectorMap.setOffsetAndSize(key, found);
 			this.updateUsedSectorsFor(null, found); //mark new sectors as allocated
 			return new Tuple<>(existing.orElse(null), found);
@@ -590,12 +969,9 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 		}
 
 		private void updateUsedSectorsFor(RegionEntryLocation oldSectorLocation, RegionEntryLocation newSectorLocation) {
-			if (oldSectorLocation != null) {
-				int oldOffset = oldSectorLocation.getOffset();
-				usedSectors.set(oldOffset, oldOffset + oldSectorLocation.getSize(), false);
-
-				//the sectors are no longer used, we can mark them as free in order to zero them out later
-				this.sectorsPendingErasure.set(oldOffset, oldOffset + oldSectorLocation.getSize(), true);
+			if (oldSectorLocation != null && oldSectorLocation.getSize() > 0) {
+				//readers may still be reading the old sectors, they're freed once no snapshot referencing them is in use anymore
+				this.retiredSectors.add(oldSectorLocation);
 			}
 			if (newSectorLocation != null) {
 				int newOffset = newSectorLocation.getOffset();
@@ -606,6 +982,23 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 			}
 		}
 
+		public List<RegionEntryLocation> takeRetiredSectors() {
+			if (this.retiredSectors.isEmpty()) {
+				return Collections.emptyList();
+			}
+			List<RegionEntryLocation> retired = new ArrayList<>(this.retiredSectors);
+			this.retiredSectors.clear();
+			return retired;
+		}
+
+		public void freeSectors(RegionEntryLocation location) {
+			int offset = location.getOffset();
+			usedSectors.set(offset, offset + location.getSize(), false);
+
+			//the sectors are no longer used, we can mark them as free in order to zero them out later
+			this.sectorsPendingErasure.set(offset, offset + location.getSize(), true);
+		}
+
 		public List<RegionEntryLocation> getAllSectorsPendingErasure() {
 			List<RegionEntryLocation> out = new ArrayList<>();
 			for (int next = 0; (next = this.sectorsPendingErasure.nextSetBit(next)) >= 0; ) {
@@ -629,6 +1022,14 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 			return this.usedSectors.length();
 		}
 
+		public int getUsedSectorCount() {
+			return this.usedSectors.cardinality();
+		}
+
+		public int getReservedSectors() {
+			return this.reservedSectors;
+		}
+
 		private boolean isSectorFree(int sector) {
 			return !usedSectors.get(sector);
 		}
@@ -651,7 +1052,7 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 					usedSectors.set(offset + i);
 				}
 			}
-			return new SectorTracker<>(usedSectors, sectorMap);
+			return new SectorTracker<>(usedSectors, sectorMap, reservedSectors);
 		}
 	}
 
@@ -0,0 +1,157 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2021 OpenCubicChunks
+ *  Copyright (c) 2015-2021 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.util;
+
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Light arrays shared by all cube storages in which every block has the same light value. That is the case for most of them: block light
+ * is 0 nearly everywhere, and sky light is 15 in the open and 0 underground.
+ * <p>
+ * The shared arrays must never be modified. A storage gets its own copy as soon as a different value is set through
+ * {@link ExtendedBlockStorage#setSkyLight(int, int, int, int)} or {@link ExtendedBlockStorage#setBlockLight(int, int, int, int)}, which is the
+ * only place where this is enforced. Any other code, including other mods, that gets a light array from a storage and writes to it through
+ * {@link NibbleArray#set(int, int, int, int)} or {@link NibbleArray#getData()} has to check {@link #isShared(NibbleArray)} first, and replace
+ * the array with a {@link #copy(NibbleArray)} if it's shared. Otherwise the light changes in every storage using that array, in all worlds.
+ * With assertions enabled, {@link #deduplicate(ExtendedBlockStorage)} checks that the shared arrays are unchanged.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class UniformNibbleArrays {
+
+    private static final int ARRAY_SIZE = 2048;
+
+    private static final NibbleArray[] SHARED = new NibbleArray[16];
+
+    static {
+        for (int value = 0; value < SHARED.length; value++) {
+            byte[] data = new byte[ARRAY_SIZE];
+            Arrays.fill(data, (byte) (value | value << 4));
+            SHARED[value] = new NibbleArray(data);
+        }
+    }
+
+    /**
+     * @return the shared array with all values set to the given value
+     */
+    public static NibbleArray get(int value) {
+        return SHARED[value];
+    }
+
+    public static boolean isShared(@Nullable NibbleArray array) {
+        return getSharedValue(array) >= 0;
+    }
+
+    /**
+     * @return the value of all entries if the array is one of the shared arrays, -1 otherwise
+     */
+    public static int getSharedValue(@Nullable NibbleArray array) {
+        if (array == null) {
+            return -1;
+        }
+        // not looked up by the data, so that a shared array is still recognized if it was modified by mistake
+        for (int value = 0; value < SHARED.length; value++) {
+            if (SHARED[value] == array) {
+                return value;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the value of all entries if they are the same, -1 otherwise
+     */
+    public static int getUniformValue(NibbleArray array) {
+        int shared = getSharedValue(array);
+        if (shared >= 0) {
+            return shared;
+        }
+        byte[] data = array.getData();
+        byte first = data[0];
+        if ((first & 0xF) != (first >> 4 & 0xF)) {
+            return -1;
+        }
+        for (byte b : data) {
+            if (b != first) {
+                return -1;
+            }
+        }
+        return first & 0xF;
+    }
+
+    /**
+     * @return the shared array for the given light data if all its values are the same, otherwise a new array using the given data
+     */
+    public static NibbleArray of(byte[] data) {
+        NibbleArray array = new NibbleArray(data);
+        int value = getUniformValue(array);
+        return value >= 0 ? SHARED[value] : array;
+    }
+
+    /**
+     * @return a modifiable copy of the given array
+     */
+    public static NibbleArray copy(NibbleArray array) {
+        return new NibbleArray(array.getData().clone());
+    }
+
+    /**
+     * Replaces the light arrays of the storage with shared arrays where possible
+     */
+    public static void deduplicate(ExtendedBlockStorage storage) {
+        assert sharedArraysUnmodified() : "A shared light array was modified, light arrays have to be copied before writing to them";
+        int blockLight = getUniformValue(storage.getBlockLight());
+        if (blockLight >= 0) {
+            storage.setBlockLight(SHARED[blockLight]);
+        }
+        NibbleArray skyLight = storage.getSkyLight();
+        //noinspection ConstantConditions
+        if (skyLight != null) {
+            int value = getUniformValue(skyLight);
+            if (value >= 0) {
+                storage.setSkyLight(SHARED[value]);
+            }
+        }
+    }
+
+    private static boolean sharedArraysUnmodified() {
+        for (int value = 0; value < SHARED.length; value++) {
+            byte expected = (byte) (value | value << 4);
+            for (byte b : SHARED[value].getData()) {
+                if (b != expected) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -24,6 +24,7 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.util;
 
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 
@@ -31,6 +32,7 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
 
 import javax.annotation.Nonnull;
 
@@ -44,6 +46,12 @@ public class WatchersSortingList<T> implements Iterable<T> {
 
     /** Order in which list should be sorted during tick event */
     private final Comparator<T> order;
+    /**
+     * Priority of elements if the list is sorted by priority, lower values first. Computed once for each element in every sort, which is cheaper
+     * than a comparator when computing the priority is expensive.
+     */
+    private final ToDoubleFunction<T> priority;
+    private double[] priorities;
 
     /** Contain all data in sorting order */
     private Object[] data = new Object[32768];
@@ -64,6 +72,11 @@ public class WatchersSortingList<T> implements Iterable<T> {
     private final Object2IntMap<T> indexMap = new Object2IntOpenHashMap<>();
 
     public WatchersSortingList(Comparator<T> orderIn) {
+        this(orderIn, null);
+    }
+
+    private WatchersSortingList(Comparator<T> orderIn, ToDoubleFunction<T> priority) {
+        this.priority = priority;
         indexMap.defaultReturnValue(-1);
         // With this trick we can drop removed elements to the end of a list.
         order = (o1, o2) -> {
@@ -79,9 +92,24 @@ public class WatchersSortingList<T> implements Iterable<T> {
         };
     }
 
+    /**
+     * Creates a list sorted by the given priority function, elements with lower priority values are first.
+     *
+     * @param priority the priority function
+     * @param <T> the type of elements
+     * @return the new list
+     */
+    public static <T> WatchersSortingList<T> byPriority(ToDoubleFunction<T> priority) {
+        return new WatchersSortingList<>(Comparator.comparingDouble(priority), priority);
+    }
+
     /** Sort and remove dead elements */
     public void sort() {
-        Arrays.sort((T[]) data, start, start + size, order);
+        if (priority == null) {
+            Arrays.sort((T[]) data, start, start + size, order);
+        } else {
+            sortByPriority();
+        }
         int newSize = Integer.MIN_VALUE;
         for (int i = start; i <= start + size; i++) {
             if (data[i] == null) {
@@ -95,6 +123,36 @@ public class WatchersSortingList<T> implements Iterable<T> {
         removed = 0;
     }
 
+    private void sortByPriority() {
+        if (priorities == null || priorities.length < data.length) {
+            priorities = new double[data.length];
+        }
+        for (int i = start; i < start + size; i++) {
+            T element = (T) data[i];
+            // removed elements are moved to the end
+            priorities[i] = element == null ? Double.POSITIVE_INFINITY : priority.applyAsDouble(element);
+        }
+        it.unimi.dsi.fastutil.Arrays.quickSort(start, start + size,
+                new AbstractIntComparator() {
+                    @Override public int compare(int i1, int i2) {
+                        int result = Double.compare(priorities[i1], priorities[i2]);
+                        if (result == 0 && priorities[i1] == Double.POSITIVE_INFINITY) {
+                            // keep elements with infinite priority before removed elements
+                            return Boolean.compare(data[i1] == null, data[i2] == null);
+                        }
+                        return result;
+                    }
+                },
+                (i1, i2) -> {
+                    Object element = data[i1];
+                    data[i1] = data[i2];
+                    data[i2] = element;
+                    double p = priorities[i1];
+                    priorities[i1] = priorities[i2];
+                    priorities[i2] = p;
+                });
+    }
+
     /**
      * Check if list is empty. Even when it return true list still could contain
      * data, but it will be removed in attempt to access it via iterator.
@@ -57,13 +57,19 @@ public class TicketList {
         if (cube == null) {
             return;
         }
-        if (tickets.remove(ticket) && ticket.shouldTick()) {
+        if (!tickets.remove(ticket)) {
+            return;
+        }
+        if (ticket.shouldTick()) {
             tickRefs--;
             assert tickRefs >= 0;
             if (tickRefs == 0) {
                 ((ICubicWorldInternal.Server) cube.getWorld()).removeForcedCube(cube);
             }
         }
+        if (tickets.isEmpty() && !cube.getWorld().isRemote) {
+            ((ICubicWorldInternal.Server) cube.getWorld()).getCubeCache().markUnloadCandidate(cube);
+        }
     }
 
     /**
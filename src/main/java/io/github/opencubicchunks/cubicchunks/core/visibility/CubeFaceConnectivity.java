@@ -0,0 +1,161 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2021 OpenCubicChunks
+ *  Copyright (c) 2015-2021 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.visibility;
+
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.BitSet;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Computes which faces of a cube are connected to each other through non-opaque blocks, similar to what the client does for chunk rendering.
+ * The result is a bit set with a bit for each pair of faces.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public final class CubeFaceConnectivity {
+
+    public static final int ALL_CONNECTED = (1 << 15) - 1;
+    public static final int NONE_CONNECTED = 0;
+
+    private static final int SIZE = Cube.SIZE;
+
+    private CubeFaceConnectivity() {
+        throw new Error();
+    }
+
+    public static boolean isConnected(int connectivity, EnumFacing from, EnumFacing to) {
+        return from == to || (connectivity & pairBit(from.getIndex(), to.getIndex())) != 0;
+    }
+
+    /**
+     * @param storage the blocks of the cube, null for an empty cube
+     */
+    public static int compute(@Nullable ExtendedBlockStorage storage) {
+        if (storage == null || storage.isEmpty()) {
+            return ALL_CONNECTED;
+        }
+        BitSet blocked = new BitSet(SIZE * SIZE * SIZE);
+        for (int y = 0; y < SIZE; y++) {
+            for (int z = 0; z < SIZE; z++) {
+                for (int x = 0; x < SIZE; x++) {
+                    if (storage.get(x, y, z).isOpaqueCube()) {
+                        blocked.set(index(x, y, z));
+                    }
+                }
+            }
+        }
+        if (blocked.cardinality() == SIZE * SIZE * SIZE) {
+            return NONE_CONNECTED;
+        }
+
+        int connectivity = NONE_CONNECTED;
+        int[] queue = new int[SIZE * SIZE * SIZE];
+        // only blocks on the faces of the cube can start a region that connects faces, and each region is flood filled once
+        for (int start = 0; start < SIZE * SIZE * SIZE && connectivity != ALL_CONNECTED; start++) {
+            if (blocked.get(start) || faces(start) == 0) {
+                continue;
+            }
+            int faces = 0;
+            int head = 0, tail = 0;
+            queue[tail++] = start;
+            blocked.set(start);
+            while (head < tail) {
+                int idx = queue[head++];
+                faces |= faces(idx);
+                int x = idx & 0xF, z = (idx >> 4) & 0xF, y = idx >> 8;
+                tail = visit(blocked, queue, tail, x - 1, y, z);
+                tail = visit(blocked, queue, tail, x + 1, y, z);
+                tail = visit(blocked, queue, tail, x, y - 1, z);
+                tail = visit(blocked, queue, tail, x, y + 1, z);
+                tail = visit(blocked, queue, tail, x, y, z - 1);
+                tail = visit(blocked, queue, tail, x, y, z + 1);
+            }
+            for (int a = 0; a < 6; a++) {
+                for (int b = a + 1; b < 6; b++) {
+                    if ((faces & (1 << a)) != 0 && (faces & (1 << b)) != 0) {
+                        connectivity |= pairBit(a, b);
+                    }
+                }
+            }
+        }
+        return connectivity;
+    }
+
+    private static int visit(BitSet blocked, int[] queue, int tail, int x, int y, int z) {
+        if (x < 0 || x >= SIZE || y < 0 || y >= SIZE || z < 0 || z >= SIZE) {
+            return tail;
+        }
+        int idx = index(x, y, z);
+        if (blocked.get(idx)) {
+            return tail;
+        }
+        blocked.set(idx);
+        queue[tail] = idx;
+        return tail + 1;
+    }
+
+    /**
+     * @return the faces the block at the index is on, as a bit mask of EnumFacing indices
+     */
+    private static int faces(int idx) {
+        int x = idx & 0xF, z = (idx >> 4) & 0xF, y = idx >> 8;
+        int faces = 0;
+        if (y == 0) {
+            faces |= 1 << EnumFacing.DOWN.getIndex();
+        } else if (y == SIZE - 1) {
+            faces |= 1 << EnumFacing.UP.getIndex();
+        }
+        if (z == 0) {
+            faces |= 1 << EnumFacing.NORTH.getIndex();
+        } else if (z == SIZE - 1) {
+            faces |= 1 << EnumFacing.SOUTH.getIndex();
+        }
+        if (x == 0) {
+            faces |= 1 << EnumFacing.WEST.getIndex();
+        } else if (x == SIZE - 1) {
+            faces |= 1 << EnumFacing.EAST.getIndex();
+        }
+        return faces;
+    }
+
+    private static int index(int x, int y, int z) {
+        return y << 8 | z << 4 | x;
+    }
+
+    /**
+     * @return the bit of the unordered pair of different faces a and b, pairs are numbered 0 to 14
+     */
+    private static int pairBit(int a, int b) {
+        int low = Math.min(a, b), high = Math.max(a, b);
+        // number of pairs with a smaller first face, plus the offset within the pairs starting with low
+        return 1 << (low * (11 - low) / 2 + high - low - 1);
+    }
+}
@@ -24,6 +24,7 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.visibility;
 
+import io.github.opencubicchunks.cubicchunks.api.util.Box;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.util.math.ChunkPos;
@@ -62,36 +63,17 @@ public class CuboidalCubeSelector extends CubeSelector {
         int newX = newPos.getX();
         int newY = newPos.getY();
         int newZ = newPos.getZ();
-        int dx = newX - oldX;
-        int dy = newY - oldY;
-        int dz = newZ - oldZ;
 
-        for (int currentX = newX - horizontalViewDistance; currentX <= newX + horizontalViewDistance; ++currentX) {
-            for (int currentZ = newZ - horizontalViewDistance; currentZ <= newZ + horizontalViewDistance; ++currentZ) {
-                //first handle columns
-                //is current position outside of the old render distance square?
-                if (!this.isPointWithinCubeVolume(oldX, 0, oldZ, currentX, 0, currentZ, horizontalViewDistance, verticalViewDistance)) {
-                    columnsToLoad.add(new ChunkPos(currentX, currentZ));
-                }
-
-                //if we moved the current point to where it would be previously,
-                //would it be outside of current render distance square?
-                if (!this.isPointWithinCubeVolume(newX, 0, newZ, currentX - dx, 0, currentZ - dz, horizontalViewDistance, verticalViewDistance)) {
-                    columnsToRemove.add(new ChunkPos(currentX - dx, currentZ - dz));
-                }
-                for (int currentY = newY - verticalViewDistance; currentY <= newY + verticalViewDistance; ++currentY) {
-                    //now handle cubes, the same way
-                    if (!this.isPointWithinCubeVolume(oldX, oldY, oldZ, currentX, currentY, currentZ,
-                            horizontalViewDistance, verticalViewDistance)) {
-                        cubesToLoad.add(new CubePos(currentX, currentY, currentZ));
-                    }
-                    if (!this.isPointWithinCubeVolume(newX, newY, newZ, currentX - dx, currentY - dy, currentZ - dz,
-                            horizontalViewDistance, verticalViewDistance)) {
-                        cubesToRemove.add(new CubePos(currentX - dx, currentY - dy, currentZ - dz));
-                    }
-                }
-            }
-        }
+        // only positions in one volume but not the other are visited, so the cost depends on how far the player moved, not on the view distance
+        forEachInDifference(newX, newY, newZ, oldX, oldY, oldZ, horizontalViewDistance, verticalViewDistance,
+                (x, y, z) -> cubesToLoad.add(new CubePos(x, y, z)));
+        forEachInDifference(oldX, oldY, oldZ, newX, newY, newZ, horizontalViewDistance, verticalViewDistance,
+                (x, y, z) -> cubesToRemove.add(new CubePos(x, y, z)));
+        // columns are the same with a single layer of cubes
+        forEachInDifference(newX, 0, newZ, oldX, 0, oldZ, horizontalViewDistance, 0,
+                (x, y, z) -> columnsToLoad.add(new ChunkPos(x, z)));
+        forEachInDifference(oldX, 0, oldZ, newX, 0, newZ, horizontalViewDistance, 0,
+                (x, y, z) -> columnsToRemove.add(new ChunkPos(x, z)));
 
         assert cubesToLoad.stream().allMatch(pos -> !cubesToRemove.contains(pos)) : "cubesToRemove contains element from cubesToLoad!";
         assert columnsToLoad.stream().allMatch(pos -> !columnsToRemove.contains(pos)) : "columnsToRemove contains element from columnsToLoad!";
@@ -121,6 +103,34 @@ public class CuboidalCubeSelector extends CubeSelector {
         }
     }
 
+    /**
+     * Calls the consumer for all points of the volume centered at (x, y, z) which are not in the volume of the same size centered at
+     * (exceptX, exceptY, exceptZ).
+     */
+    private static void forEachInDifference(int x, int y, int z, int exceptX, int exceptY, int exceptZ, int horizontal, int vertical,
+            Box.XYZFunction consumer) {
+        for (int currentX = x - horizontal; currentX <= x + horizontal; currentX++) {
+            boolean xOutside = currentX < exceptX - horizontal || currentX > exceptX + horizontal;
+            for (int currentY = y - vertical; currentY <= y + vertical; currentY++) {
+                if (xOutside || currentY < exceptY - vertical || currentY > exceptY + vertical) {
+                    for (int currentZ = z - horizontal; currentZ <= z + horizontal; currentZ++) {
+                        consumer.apply(currentX, currentY, currentZ);
+                    }
+                    continue;
+                }
+                // x and y are in both volumes, so only the z ranges that don't overlap are left
+                int zMin = z - horizontal;
+                int zMax = z + horizontal;
+                for (int currentZ = zMin; currentZ <= Math.min(zMax, exceptZ - horizontal - 1); currentZ++) {
+                    consumer.apply(currentX, currentY, currentZ);
+                }
+                for (int currentZ = Math.max(zMin, exceptZ + horizontal + 1); currentZ <= zMax; currentZ++) {
+                    consumer.apply(currentX, currentY, currentZ);
+                }
+            }
+        }
+    }
+
     private boolean isPointWithinCubeVolume(int cubeX, int cubeY, int cubeZ, int pointX, int pointY, int pointZ, int horizontal, int vertical) {
         int dx = cubeX - pointX;
         int dy = cubeY - pointY;
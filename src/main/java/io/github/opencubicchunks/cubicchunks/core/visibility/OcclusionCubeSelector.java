@@ -0,0 +1,180 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2021 OpenCubicChunks
+ *  Copyright (c) 2015-2021 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.visibility;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.EnumFacing;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Selects the same cubes as {@link CuboidalCubeSelector} for loading, and additionally allows finding which of them can be seen from the
+ * player's cube, by flood filling through cubes whose faces are connected by non-opaque blocks.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class OcclusionCubeSelector extends CuboidalCubeSelector {
+
+    /**
+     * Finds the cubes that may be visible from the given cube. A cube is considered visible when it can be reached from the starting cube
+     * through faces connected within each cube on the way, without going back towards the start.
+     */
+    public VisibilityMap findVisible(CubePos from, int horizontalViewDistance, int verticalViewDistance, ConnectivityLookup lookup) {
+        VisibilityMap map = new VisibilityMap(from, horizontalViewDistance, verticalViewDistance);
+        IntArrayFIFOQueue queue = new IntArrayFIFOQueue();
+
+        int start = map.index(from.getX(), from.getY(), from.getZ());
+        // the starting cube is entered from everywhere
+        map.entered[start] = (byte) 0x3F;
+        queue.enqueue(start);
+
+        while (!queue.isEmpty()) {
+            int idx = queue.dequeueInt();
+            int x = map.x(idx), y = map.y(idx), z = map.z(idx);
+            int enteredFaces = map.entered[idx];
+            int connectivity = idx == start ? CubeFaceConnectivity.ALL_CONNECTED : lookup.get(x, y, z);
+            for (EnumFacing exit : EnumFacing.VALUES) {
+                int nx = x + exit.getXOffset(), ny = y + exit.getYOffset(), nz = z + exit.getZOffset();
+                if (!map.isInBounds(nx, ny, nz) || !isFacingAway(from, nx, ny, nz, exit)) {
+                    continue;
+                }
+                if (!canExit(connectivity, enteredFaces, exit)) {
+                    continue;
+                }
+                int next = map.index(nx, ny, nz);
+                int entryBit = 1 << exit.getOpposite().getIndex();
+                if ((map.entered[next] & entryBit) != 0) {
+                    continue;
+                }
+                boolean firstVisit = map.entered[next] == 0;
+                map.entered[next] |= entryBit;
+                // a cube entered through a new face can lead to new exits, so it has to be processed again
+                if (firstVisit || lookup.get(nx, ny, nz) != CubeFaceConnectivity.ALL_CONNECTED) {
+                    queue.enqueue(next);
+                }
+            }
+        }
+        return map;
+    }
+
+    private static boolean canExit(int connectivity, int enteredFaces, EnumFacing exit) {
+        for (EnumFacing entry : EnumFacing.VALUES) {
+            if ((enteredFaces & (1 << entry.getIndex())) != 0 && CubeFaceConnectivity.isConnected(connectivity, entry, exit)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Going back towards the starting cube along any axis is not allowed, same as in the client's chunk render culling. Otherwise the search
+     * could go around walls and reach cubes that can't actually be seen.
+     */
+    private static boolean isFacingAway(CubePos from, int x, int y, int z, EnumFacing direction) {
+        int offset;
+        switch (direction.getAxis()) {
+            case X:
+                offset = x - from.getX();
+                break;
+            case Y:
+                offset = y - from.getY();
+                break;
+            default:
+                offset = z - from.getZ();
+        }
+        return offset * direction.getAxisDirection().getOffset() > 0;
+    }
+
+    @FunctionalInterface
+    public interface ConnectivityLookup {
+
+        /**
+         * @return face connectivity of the cube at the given position, as returned by {@link CubeFaceConnectivity#compute}
+         */
+        int get(int cubeX, int cubeY, int cubeZ);
+    }
+
+    /**
+     * Result of {@link #findVisible}, valid only for the cube and view distance it was computed for.
+     */
+    public static final class VisibilityMap {
+
+        private final CubePos origin;
+        private final int horizontal;
+        private final int vertical;
+        private final int sizeH;
+        private final int sizeV;
+        // for each cube, the faces through which it has been entered
+        private final byte[] entered;
+
+        private VisibilityMap(CubePos origin, int horizontal, int vertical) {
+            this.origin = origin;
+            this.horizontal = horizontal;
+            this.vertical = vertical;
+            this.sizeH = horizontal * 2 + 1;
+            this.sizeV = vertical * 2 + 1;
+            this.entered = new byte[sizeH * sizeV * sizeH];
+        }
+
+        public CubePos getOrigin() {
+            return origin;
+        }
+
+        public boolean isVisible(int cubeX, int cubeY, int cubeZ) {
+            return isInBounds(cubeX, cubeY, cubeZ) && entered[index(cubeX, cubeY, cubeZ)] != 0;
+        }
+
+        public boolean isVisible(CubePos pos) {
+            return isVisible(pos.getX(), pos.getY(), pos.getZ());
+        }
+
+        private boolean isInBounds(int cubeX, int cubeY, int cubeZ) {
+            return Math.abs(cubeX - origin.getX()) <= horizontal
+                    && Math.abs(cubeY - origin.getY()) <= vertical
+                    && Math.abs(cubeZ - origin.getZ()) <= horizontal;
+        }
+
+        private int index(int cubeX, int cubeY, int cubeZ) {
+            int dx = cubeX - origin.getX() + horizontal;
+            int dy = cubeY - origin.getY() + vertical;
+            int dz = cubeZ - origin.getZ() + horizontal;
+            return (dy * sizeH + dz) * sizeH + dx;
+        }
+
+        private int x(int idx) {
+            return idx % sizeH - horizontal + origin.getX();
+        }
+
+        private int z(int idx) {
+            return (idx / sizeH) % sizeH - horizontal + origin.getZ();
+        }
+
+        private int y(int idx) {
+            return idx / (sizeH * sizeH) - vertical + origin.getY();
+        }
+    }
+}
@@ -143,6 +143,12 @@ public class ClientHeightMap implements IHeightMap {
         }
     }
 
+    public void loadData(int[] heights) {
+        for (int i = 0; i < Cube.SIZE * Cube.SIZE; i++) {
+            hmap.set(i, heights[i]);
+        }
+    }
+
     private static int getIndex(int localX, int localZ) {
         return (localZ << 4) | localX;
     }
@@ -27,6 +27,7 @@ package io.github.opencubicchunks.cubicchunks.core.world;
 import io.github.opencubicchunks.cubicchunks.api.world.storage.StorageFormatProviderBase;
 import io.github.opencubicchunks.cubicchunks.api.worldgen.VanillaCompatibilityGeneratorProviderBase;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.github.opencubicchunks.cubicchunks.core.server.chunkio.CubeCompression;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.world.storage.WorldSavedData;
@@ -37,6 +38,7 @@ public class WorldSavedCubicChunksData extends WorldSavedData {
     public int minHeight = 0, maxHeight = 256;
     public ResourceLocation compatibilityGeneratorType = VanillaCompatibilityGeneratorProviderBase.DEFAULT;
     public ResourceLocation storageFormat = StorageFormatProviderBase.DEFAULT;
+    public CubeCompression compression = CubeCompression.GZIP;
 
     public WorldSavedCubicChunksData(String name) {
         super(name);
@@ -50,6 +52,7 @@ public class WorldSavedCubicChunksData extends WorldSavedData {
             isCubicChunks = true;
             compatibilityGeneratorType = new ResourceLocation(CubicChunksConfig.compatibilityGeneratorType);
             storageFormat = StorageFormatProviderBase.defaultStorageFormatProviderName(CubicChunksConfig.storageFormat);
+            compression = CubicChunksConfig.storageCompression;
         }
     }
 
@@ -68,6 +71,9 @@ public class WorldSavedCubicChunksData extends WorldSavedData {
             //if no storage format is set, we should assume that this world was created before the custom storage API. therefore, it
             // must be using anvil3d.
             storageFormat = StorageFormatProviderBase.DEFAULT;
+        //worlds created before compression could be configured always use gzip
+        CubeCompression savedCompression = CubeCompression.byName(nbt.getString("compression"));
+        compression = savedCompression == null ? CubeCompression.GZIP : savedCompression;
     }
 
     @Override
@@ -77,6 +83,7 @@ public class WorldSavedCubicChunksData extends WorldSavedData {
         compound.setBoolean("isCubicChunks", isCubicChunks);
         compound.setString("compatibilityGeneratorType", compatibilityGeneratorType.toString());
         compound.setString("storageFormat", storageFormat.toString());
+        compound.setString("compression", compression.getName());
         return compound;
     }
 
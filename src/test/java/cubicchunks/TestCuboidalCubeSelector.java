@@ -0,0 +1,94 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2021 OpenCubicChunks
+ *  Copyright (c) 2015-2021 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.assertEquals;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.visibility.CuboidalCubeSelector;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.ChunkPos;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestCuboidalCubeSelector {
+
+    private final CuboidalCubeSelector selector = new CuboidalCubeSelector();
+
+    @Test
+    public void testFindChangedSmallMoves() {
+        Random rand = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            CubePos oldPos = new CubePos(rand.nextInt(20) - 10, rand.nextInt(20) - 10, rand.nextInt(20) - 10);
+            CubePos newPos = oldPos.add(rand.nextInt(7) - 3, rand.nextInt(7) - 3, rand.nextInt(7) - 3);
+            checkFindChanged(oldPos, newPos, 2 + rand.nextInt(4), 2 + rand.nextInt(4));
+        }
+    }
+
+    @Test
+    public void testFindChangedTeleport() {
+        checkFindChanged(new CubePos(0, 0, 0), new CubePos(100, -50, 3), 4, 3);
+        checkFindChanged(new CubePos(0, 0, 0), new CubePos(0, 0, 0), 4, 3);
+    }
+
+    private void checkFindChanged(CubePos oldPos, CubePos newPos, int horizontal, int vertical) {
+        Set<CubePos> cubesToRemove = new HashSet<>();
+        Set<CubePos> cubesToLoad = new HashSet<>();
+        Set<ChunkPos> columnsToRemove = new HashSet<>();
+        Set<ChunkPos> columnsToLoad = new HashSet<>();
+        selector.findChanged(oldPos, newPos, horizontal, vertical, cubesToRemove, cubesToLoad, columnsToRemove, columnsToLoad);
+
+        Set<CubePos> oldCubes = new HashSet<>();
+        Set<CubePos> newCubes = new HashSet<>();
+        selector.forAllVisibleFrom(oldPos, horizontal, vertical, oldCubes::add);
+        selector.forAllVisibleFrom(newPos, horizontal, vertical, newCubes::add);
+        Set<ChunkPos> oldColumns = columnsOf(oldCubes);
+        Set<ChunkPos> newColumns = columnsOf(newCubes);
+
+        assertEquals(difference(newCubes, oldCubes), cubesToLoad);
+        assertEquals(difference(oldCubes, newCubes), cubesToRemove);
+        assertEquals(difference(newColumns, oldColumns), columnsToLoad);
+        assertEquals(difference(oldColumns, newColumns), columnsToRemove);
+    }
+
+    private static Set<ChunkPos> columnsOf(Set<CubePos> cubes) {
+        Set<ChunkPos> columns = new HashSet<>();
+        cubes.forEach(pos -> columns.add(pos.chunkPos()));
+        return columns;
+    }
+
+    private static <T> Set<T> difference(Set<T> a, Set<T> b) {
+        Set<T> result = new HashSet<>(a);
+        result.removeAll(b);
+        return result;
+    }
+}
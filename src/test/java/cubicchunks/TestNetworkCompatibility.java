@@ -0,0 +1,69 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2021 OpenCubicChunks
+ *  Copyright (c) 2015-2021 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraftforge.fml.relauncher.Side;
+import org.junit.Test;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestNetworkCompatibility {
+
+    private static final String VERSION = "1.12.2-0.0.1200.0";
+    private static final String PROTOCOL = String.valueOf(CubicChunks.NETWORK_PROTOCOL_VERSION);
+
+    @Test
+    public void testSameVersionAccepted() {
+        assertTrue(CubicChunks.isCompatibleVersion(VERSION, VERSION, PROTOCOL, Side.CLIENT));
+        assertTrue(CubicChunks.isCompatibleVersion(VERSION, VERSION, PROTOCOL, Side.SERVER));
+    }
+
+    @Test
+    public void testDevVersionAccepted() {
+        assertTrue(CubicChunks.isCompatibleVersion("9999.9999.9999.9", VERSION, PROTOCOL, Side.CLIENT));
+        assertTrue(CubicChunks.isCompatibleVersion(VERSION, "9999.9999.9999.9", PROTOCOL, Side.SERVER));
+    }
+
+    @Test
+    public void testOlderVersionWithoutProtocolRejected() {
+        // older versions send their mod version as the coremod version, with the same version number as untagged newer builds
+        assertFalse(CubicChunks.isCompatibleVersion(VERSION, VERSION, VERSION, Side.CLIENT));
+        assertFalse(CubicChunks.isCompatibleVersion(VERSION, VERSION, null, Side.SERVER));
+    }
+
+    @Test
+    public void testDifferentProtocolRejected() {
+        String otherProtocol = String.valueOf(CubicChunks.NETWORK_PROTOCOL_VERSION + 1);
+        assertFalse(CubicChunks.isCompatibleVersion(VERSION, VERSION, otherProtocol, Side.CLIENT));
+        assertFalse(CubicChunks.isCompatibleVersion(VERSION, VERSION, otherProtocol, Side.SERVER));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2021 OpenCubicChunks
+ *  Copyright (c) 2015-2021 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import io.github.opencubicchunks.cubicchunks.api.util.PackedXYZMap;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZAddressable;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestPackedXYZMap {
+
+    @Test
+    public void testMatchesXYZMap() {
+        Random rand = new Random(42);
+        PackedXYZMap<Pos> packed = new PackedXYZMap<>(0.7f, 4);
+        XYZMap<Pos> reference = new XYZMap<>(0.7f, 4);
+        for (int i = 0; i < 100000; i++) {
+            // large Y values don't fit into CubePos bit layout, make sure they are handled
+            int x = rand.nextInt(32) - 16;
+            int y = rand.nextInt(32) - 16 + (rand.nextBoolean() ? 0 : 1 << 26);
+            int z = rand.nextInt(32) - 16;
+            switch (rand.nextInt(4)) {
+                case 0:
+                case 1:
+                    Pos pos = new Pos(x, y, z);
+                    assertSame(reference.put(pos), packed.put(pos));
+                    break;
+                case 2:
+                    assertSame(reference.remove(x, y, z), packed.remove(x, y, z));
+                    break;
+                default:
+                    assertSame(reference.get(x, y, z), packed.get(x, y, z));
+            }
+            assertEquals(reference.getSize(), packed.getSize());
+        }
+        assertEquals(contents(reference.iterator()), contents(packed.iterator()));
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        PackedXYZMap<Pos> map = new PackedXYZMap<>(0.7f, 16);
+        for (int i = 0; i < 1000; i++) {
+            map.put(new Pos(i, -i, i * 31));
+        }
+        Iterator<Pos> it = map.iterator();
+        while (it.hasNext()) {
+            if ((it.next().getX() & 1) == 0) {
+                it.remove();
+            }
+        }
+        assertEquals(500, map.getSize());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals((i & 1) != 0, map.contains(i, -i, i * 31));
+        }
+    }
+
+    @Test
+    public void testRandomWrappedIterator() {
+        PackedXYZMap<Pos> map = new PackedXYZMap<>(0.7f, 16);
+        for (int i = 0; i < 777; i++) {
+            map.put(new Pos(i, i, i));
+        }
+        for (int seed = 0; seed < 100; seed++) {
+            Set<Pos> seen = contents(map.randomWrappedIterator(seed * 12345));
+            assertEquals(map.getSize(), seen.size());
+        }
+    }
+
+    private static Set<Pos> contents(Iterator<Pos> it) {
+        Set<Pos> set = new HashSet<>();
+        it.forEachRemaining(set::add);
+        return set;
+    }
+
+    private static final class Pos implements XYZAddressable {
+
+        private final int x, y, z;
+
+        Pos(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getY() {
+            return y;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2021 OpenCubicChunks
+ *  Copyright (c) 2015-2021 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import cubicchunks.regionlib.impl.EntryLocation3D;
+import io.github.opencubicchunks.cubicchunks.core.server.chunkio.region.ShadowPagingRegion;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestShadowPagingRegion {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testBatchedWritesWithAssertions() throws Exception {
+        // the lock checks in ShadowPagingRegion are assertions, this test is only useful when they run
+        assertTrue("assertions must be enabled", ShadowPagingRegion.class.desiredAssertionStatus());
+
+        EntryLocation3D first = new EntryLocation3D(0, 0, 0);
+        try (ShadowPagingRegion<EntryLocation3D> region = ShadowPagingRegion.<EntryLocation3D>builder()
+                .setDirectory(folder.getRoot().toPath())
+                .setRegionKey(first.getRegionKey())
+                .setKeyProvider(new EntryLocation3D.Provider())
+                .setSectorSize(512)
+                .build()) {
+
+            Random rand = new Random(42);
+            Map<EntryLocation3D, ByteBuffer> expected = new LinkedHashMap<>();
+            // later batches overwrite earlier entries, which retires their sectors when the new snapshot is published
+            for (int batch = 0; batch < 8; batch++) {
+                Map<EntryLocation3D, ByteBuffer> entries = new LinkedHashMap<>();
+                for (int i = 0; i < 16; i++) {
+                    EntryLocation3D key = new EntryLocation3D(rand.nextInt(16), rand.nextInt(16), rand.nextInt(16));
+                    byte[] data = new byte[1 + rand.nextInt(2000)];
+                    rand.nextBytes(data);
+                    entries.put(key, ByteBuffer.wrap(data));
+                    expected.put(key, ByteBuffer.wrap(data));
+                }
+                region.writeValues(entries);
+            }
+
+            for (Map.Entry<EntryLocation3D, ByteBuffer> entry : expected.entrySet()) {
+                assertEquals(entry.getValue(), region.readValue(entry.getKey()).orElse(null));
+            }
+        }
+    }
+}
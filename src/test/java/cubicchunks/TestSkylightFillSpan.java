@@ -0,0 +1,69 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2021 OpenCubicChunks
+ *  Copyright (c) 2015-2021 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.assertEquals;
+
+import io.github.opencubicchunks.cubicchunks.core.lighting.phosphor.LightingHooks;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestSkylightFillSpan {
+
+    @Test
+    public void testBlockRemovedFromTop() {
+        // the top block moved down from 70 to 20, everything above the new top sees the sky
+        assertEquals(21, LightingHooks.getSkylightFillMin(20, 70, 20));
+    }
+
+    @Test
+    public void testBlockPlacedOnTop() {
+        // the top block moved up from 20 to 70, nothing in the span sees the sky anymore
+        assertEquals(71, LightingHooks.getSkylightFillMin(20, 70, 70));
+    }
+
+    @Test
+    public void testSpanAboveTop() {
+        // a block was removed from a floating structure high above the actual top block
+        assertEquals(50, LightingHooks.getSkylightFillMin(50, 70, 30));
+    }
+
+    @Test
+    public void testSpanBelowTop() {
+        // something changed under an overhang, light has to be propagated normally
+        assertEquals(31, LightingHooks.getSkylightFillMin(10, 30, 100));
+    }
+
+    @Test
+    public void testSpanAcrossCubes() {
+        // heights at both ends of the span in different cubes, including negative Y
+        assertEquals(-40, LightingHooks.getSkylightFillMin(-40, 200, -100));
+        assertEquals(17, LightingHooks.getSkylightFillMin(-40, 200, 16));
+    }
+}
@@ -72,6 +72,80 @@ public class TestWatchersSortingList {
         }
     }
 
+    @Test
+    public void testSortByPriority() {
+        this.setup();
+        WatchersSortingList<Integer> list = WatchersSortingList.byPriority(TestWatchersSortingList::priority);
+        this.fillList(list);
+        list.sort();
+        this.checkList(list);
+        Integer prev = null;
+        for (Integer e : list) {
+            if (prev != null) {
+                assertTrue(list.toString(), priority(prev) <= priority(e));
+            }
+            prev = e;
+        }
+    }
+
+    @Test
+    public void testSortByPriorityRemovedLast() {
+        this.setup();
+        WatchersSortingList<Integer> list = WatchersSortingList.byPriority(TestWatchersSortingList::priority);
+        this.fillList(list);
+        assertFalse(removed.isEmpty());
+        list.sort();
+        // removed elements have to end up after all others, including the ones with infinite priority, as the list is cut at the first one
+        int infinite = 0;
+        for (Integer e : list) {
+            if (priority(e) == Double.POSITIVE_INFINITY) {
+                infinite++;
+            }
+        }
+        int expectedInfinite = 0;
+        for (Integer e : added) {
+            if (!removed.contains(e) && priority(e) == Double.POSITIVE_INFINITY) {
+                expectedInfinite++;
+            }
+        }
+        assertTrue(expectedInfinite > 0);
+        assertEquals(expectedInfinite, infinite);
+        this.checkList(list);
+    }
+
+    @Test
+    public void testContainsAfterSortByPriority() {
+        this.setup();
+        WatchersSortingList<Integer> list = WatchersSortingList.byPriority(TestWatchersSortingList::priority);
+        this.fillList(list);
+        list.sort();
+        for (Integer e : added) {
+            assertEquals(!removed.contains(e), list.contains(e));
+        }
+        // removing uses the index of the element, which has to be updated by sort
+        List<Integer> remaining = new ArrayList<>();
+        for (Integer e : list) {
+            remaining.add(e);
+        }
+        for (int i = 0; i < remaining.size(); i += 2) {
+            Integer e = remaining.get(i);
+            list.remove(e);
+            removed.add(e);
+            assertFalse(list.contains(e));
+        }
+        this.checkList(list);
+        list.sort();
+        this.checkList(list);
+        for (Integer e : added) {
+            assertEquals(!removed.contains(e), list.contains(e));
+        }
+    }
+
+    private static double priority(int e) {
+        // not in the order of the values, with some elements that have infinite priority
+        return e % 5 == 0 ? Double.POSITIVE_INFINITY : (e * 37) % 64;
+    }
+
     private void fillList(WatchersSortingList<Integer> list) {
         Random random = new Random(42);
         for (int i=0;i<64;i++) {